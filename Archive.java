@@ -0,0 +1,449 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A read-only archive of cold objects: commits, blobs and chunks moved out of the
+ * loose object directories by "archive --older-than", so that those directories, and
+ * everything that lists or caches them, hold only recent history. Repository looks
+ * in its archives only for objects that are not loose.
+ *
+ * An archive is two files. NAME.archive holds the objects, as the raw bytes of their
+ * loose files, packed into blocks of about BLOCK bytes that are compressed one by
+ * one: objects stored side by side compress together, yet one object costs only its
+ * block to read. Each block is its raw and compressed lengths and the zlib stream.
+ *
+ * NAME.idx is the index: the magic number, the version and the object count, then
+ * for each object, sorted by type and ID, its type byte as in Pack, 20-byte ID,
+ * block offset, and offset and length within the block. It is mapped into memory
+ * and searched in place, and written after the objects, so an archive without one
+ * is an unfinished write and is ignored.
+ *
+ * An open Archive holds NAME.archive open until it is closed.
+ */
+class Archive implements AutoCloseable {
+
+    /** The first four bytes of every archive: "GLAR". */
+    private static final int MAGIC = 0x474c4152;
+
+    /** The first four bytes of every archive index: "GLAI". */
+    private static final int INDEX_MAGIC = 0x474c4149;
+
+    /** The version of the format written. */
+    private static final int VERSION = 1;
+
+    /** The raw size blocks are filled to. An object larger than this gets a block
+     *  of its own. */
+    private static final int BLOCK = 1 << 20;
+
+    /** The length of the header of an archive or its index. */
+    private static final int HEADER = 12;
+
+    /** The length of an index entry. */
+    private static final int ENTRY = 1 + Sha1.LENGTH + 8 + 4 + 4;
+
+    /** The number of inflated blocks kept. */
+    private static final int CACHED_BLOCKS = 4;
+
+    /** The name of the archive, the names of its files without their extensions. */
+    private final String name;
+
+    /** The objects. */
+    private final FileChannel data;
+
+    /** The index, mapped. */
+    private final ByteBuffer index;
+
+    /** The number of objects. */
+    private final int count;
+
+    /** Recently inflated blocks by offset, least recently used first. */
+    private final Map<Long, byte[]> blocks =
+        new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > CACHED_BLOCKS;
+            }
+        };
+
+    /** Opens the archive whose index is the file INDEXFILE. Throws
+     *  IllegalArgumentException if it is not a complete archive. */
+    Archive(File indexFile) {
+        String fileName = indexFile.getName();
+        name = fileName.substring(0, fileName.length() - ".idx".length());
+        try (FileChannel ch = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            index = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (ch.size() < HEADER || index.getInt(0) != INDEX_MAGIC
+                    || index.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("not an archive index: " + indexFile);
+            }
+            count = index.getInt(8);
+            if (ch.size() != HEADER + (long) count * ENTRY) {
+                throw new IllegalArgumentException("truncated archive index: " + indexFile);
+            }
+            data = FileChannel.open(Utils.join(indexFile.getParentFile(), name + ".archive")
+                .toPath(), StandardOpenOption.READ);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
+    /** Writes an archive to the directory DIR holding the commits COMMITIDS, the
+     *  chunks CHUNKIDS and the blobs BLOBIDS, read from SOURCE, in that order, and
+     *  returns it. Both files are forced to disk before this returns, since the
+     *  caller then deletes the objects' loose copies. */
+    static Archive write(File dir, Collection<String> commitIds, Collection<String> chunkIds,
+                         Collection<String> blobIds, Pack.ObjectSource source) {
+        List<Object> names = new ArrayList<>();
+        names.addAll(commitIds);
+        names.addAll(chunkIds);
+        names.addAll(blobIds);
+        String name = "archive-" + Utils.sha1(names);
+        dir.mkdirs();
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(dir.toPath(), "." + name, ".tmp");
+            List<Entry> entries = new ArrayList<>();
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+                writeFully(out, header.flip());
+                BlockWriter blocks = new BlockWriter(out, entries);
+                for (String id : commitIds) {
+                    blocks.add(Pack.COMMIT, id, source.read(Pack.COMMIT, id));
+                }
+                for (String id : chunkIds) {
+                    blocks.add(Pack.CHUNK, id, source.read(Pack.CHUNK, id));
+                }
+                for (String id : blobIds) {
+                    blocks.add(Pack.BLOB, id, source.read(Pack.BLOB, id));
+                }
+                blocks.flush();
+                out.force(true);
+            }
+            Files.move(tmp, Utils.join(dir, name + ".archive").toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            tmp = null;
+
+            entries.sort(Comparator.comparingInt((Entry e) -> e.type)
+                .thenComparing(e -> e.id, Arrays::compareUnsigned));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream idx = new DataOutputStream(bytes);
+            idx.writeInt(INDEX_MAGIC);
+            idx.writeInt(VERSION);
+            idx.writeInt(entries.size());
+            for (Entry e : entries) {
+                idx.writeByte(e.type);
+                idx.write(e.id);
+                idx.writeLong(e.block);
+                idx.writeInt(e.offset);
+                idx.writeInt(e.length);
+            }
+            File indexFile = Utils.join(dir, name + ".idx");
+            Utils.writeContentsAtomic(indexFile, true, bytes.toByteArray());
+            return new Archive(indexFile);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp);
+        } finally {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+        }
+    }
+
+    /** An object's index entry while an archive is written. */
+    private static class Entry {
+        private final byte type;
+        private final byte[] id;
+        private long block;
+        private final int offset;
+        private final int length;
+
+        Entry(byte type, byte[] id, int offset, int length) {
+            this.type = type;
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /** Packs objects into blocks and writes each, compressed, once it is full. */
+    private static class BlockWriter {
+        /** The archive being written. */
+        private final FileChannel out;
+
+        /** The index entries, to which those of each block are added as it is written. */
+        private final List<Entry> entries;
+
+        /** The raw contents of the current block. */
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+
+        /** The entries of the objects in the current block. */
+        private final List<Entry> pending = new ArrayList<>();
+
+        BlockWriter(FileChannel out, List<Entry> entries) {
+            this.out = out;
+            this.entries = entries;
+        }
+
+        /** Adds the object ID of TYPE, whose bytes are DATA. */
+        void add(byte type, String id, byte[] data) throws IOException {
+            if (block.size() > 0 && block.size() + data.length > BLOCK) {
+                flush();
+            }
+            pending.add(new Entry(type, Sha1.fromHex(id), block.size(), data.length));
+            block.write(data);
+        }
+
+        /** Writes the current block, if it holds anything. */
+        void flush() throws IOException {
+            if (block.size() == 0) {
+                return;
+            }
+            byte[] raw = block.toByteArray();
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4);
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                byte[] buf = new byte[1 << 16];
+                while (!deflater.finished()) {
+                    compressed.write(buf, 0, deflater.deflate(buf));
+                }
+            } finally {
+                deflater.end();
+            }
+            long position = out.position();
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(raw.length)
+                .putInt(compressed.size());
+            writeFully(out, header.flip());
+            writeFully(out, ByteBuffer.wrap(compressed.toByteArray()));
+            for (Entry e : pending) {
+                e.block = position;
+                entries.add(e);
+            }
+            pending.clear();
+            block.reset();
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /** Closes the archive file. The archive cannot be read afterwards. */
+    @Override
+    public synchronized void close() {
+        blocks.clear();
+        try {
+            data.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
+    /* READING */
+
+    /** Returns the name of this archive. */
+    String getName() {
+        return name;
+    }
+
+    /** Returns the number of objects in this archive. */
+    int size() {
+        return count;
+    }
+
+    /** Returns whether this archive holds the object ID of TYPE. */
+    boolean contains(byte type, String id) {
+        return find(type, id) >= 0;
+    }
+
+    /** Returns the bytes of the object ID of TYPE, or null if this archive does not
+     *  hold it. Throws IllegalArgumentException if the archive is damaged. */
+    byte[] read(byte type, String id) {
+        int i = find(type, id);
+        if (i < 0) {
+            return null;
+        }
+        int base = HEADER + i * ENTRY + 1 + Sha1.LENGTH;
+        int offset = index.getInt(base + 8);
+        int length = index.getInt(base + 12);
+        byte[] block = block(index.getLong(base));
+        if ((long) offset + length > block.length) {
+            throw new IllegalArgumentException("corrupt archive " + name);
+        }
+        return Arrays.copyOfRange(block, offset, offset + length);
+    }
+
+    /** Returns the ID of an object of TYPE whose ID starts with PREFIX, or null if
+     *  there is none. */
+    String findPrefix(byte type, String prefix) {
+        if (prefix.length() > 2 * Sha1.LENGTH || !prefix.matches("[0-9a-f]*")) {
+            return null;
+        }
+        String lowest = prefix + "0".repeat(2 * Sha1.LENGTH - prefix.length());
+        int i = lowerBound(type, Sha1.fromHex(lowest));
+        if (i < count && index.get(HEADER + i * ENTRY) == type) {
+            String id = idAt(i);
+            if (id.startsWith(prefix)) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the IDs of the objects of TYPE, in order. */
+    List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        int end = first((byte) (type + 1));
+        for (int i = first(type); i < end; i++) {
+            result.add(idAt(i));
+        }
+        return result;
+    }
+
+    /** Calls ACTION with the ID and bytes of each object of TYPE, in the order they
+     *  are stored, so that each block is inflated once. Throws
+     *  IllegalArgumentException if the archive is damaged. */
+    void forEach(byte type, BiConsumer<String, byte[]> action) {
+        List<Integer> order = new ArrayList<>();
+        int end = first((byte) (type + 1));
+        for (int i = first(type); i < end; i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingLong((Integer i) -> index.getLong(HEADER + i * ENTRY
+            + 1 + Sha1.LENGTH)).thenComparingInt(i -> index.getInt(HEADER + i * ENTRY
+            + 1 + Sha1.LENGTH + 8)));
+        for (int i : order) {
+            String id = idAt(i);
+            action.accept(id, read(type, id));
+        }
+    }
+
+    /** Returns the position in the index of the object ID of TYPE, or -1. */
+    private int find(byte type, String id) {
+        byte[] raw;
+        try {
+            raw = Sha1.fromHex(id);
+        } catch (IllegalArgumentException excp) {
+            return -1;
+        }
+        if (raw.length != Sha1.LENGTH) {
+            return -1;
+        }
+        int i = lowerBound(type, raw);
+        return i < count && compare(i, type, raw) == 0 ? i : -1;
+    }
+
+    /** Returns the position in the index of the first object of TYPE or a later
+     *  type. */
+    private int first(byte type) {
+        return lowerBound(type, new byte[Sha1.LENGTH]);
+    }
+
+    /** Returns the position of the first entry not less than TYPE and RAWID. */
+    private int lowerBound(byte type, byte[] rawId) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, type, rawId) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compares the entry at I with TYPE and RAWID. */
+    private int compare(int i, byte type, byte[] rawId) {
+        int base = HEADER + i * ENTRY;
+        int c = Byte.compare(index.get(base), type);
+        for (int j = 0; c == 0 && j < Sha1.LENGTH; j++) {
+            c = Integer.compare(index.get(base + 1 + j) & 0xff, rawId[j] & 0xff);
+        }
+        return c;
+    }
+
+    /** Returns the ID of the entry at I. */
+    private String idAt(int i) {
+        byte[] raw = new byte[Sha1.LENGTH];
+        index.get(HEADER + i * ENTRY + 1, raw);
+        return Sha1.toHex(raw);
+    }
+
+    /** Returns the inflated block at POSITION. */
+    private synchronized byte[] block(long position) {
+        byte[] result = blocks.get(position);
+        if (result != null) {
+            return result;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            readFully(header, position);
+            int rawLength = header.getInt(0);
+            int compressedLength = header.getInt(4);
+            if (rawLength < 0 || compressedLength < 0) {
+                throw new IllegalArgumentException("corrupt archive " + name);
+            }
+            ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+            readFully(compressed, position + 8);
+            inflater.setInput(compressed.array());
+            /* Inflating goes on past the block, into SPARE, so that the stream's
+             * checksum is read and checked. */
+            result = new byte[rawLength];
+            byte[] spare = new byte[1];
+            int n = 0;
+            while (!inflater.finished()) {
+                int k = n < rawLength ? inflater.inflate(result, n, rawLength - n)
+                    : inflater.inflate(spare);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+            if (n != rawLength || !inflater.finished()) {
+                throw new IllegalArgumentException("corrupt archive " + name);
+            }
+        } catch (IOException | DataFormatException excp) {
+            throw new IllegalArgumentException("corrupt archive " + name, excp);
+        } finally {
+            inflater.end();
+        }
+        blocks.put(position, result);
+        return result;
+    }
+
+    /** Fills BUF from the archive, starting at POSITION. */
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (data.read(buf, position + buf.position()) < 0) {
+                throw new IllegalArgumentException("truncated archive " + name);
+            }
+        }
+    }
+}
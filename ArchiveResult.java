@@ -0,0 +1,76 @@
+package gitlet;
+
+/**
+ * The outcome of moving cold objects into an archive with archive --older-than.
+ */
+public class ArchiveResult {
+    /** The name of the archive written, or null if nothing was cold. */
+    private final String name;
+
+    /** The number of commits archived. */
+    private final long commits;
+
+    /** The number of blobs archived. */
+    private final long blobs;
+
+    /** The number of chunks archived. */
+    private final long chunks;
+
+    /** The number of bytes of loose files the objects took. */
+    private final long looseBytes;
+
+    /** The number of bytes the archive takes. */
+    private final long archiveBytes;
+
+    /** The time the command took, in nanoseconds. */
+    private final long nanos;
+
+    /**
+     * Create a new ArchiveResult object.
+     * @param name The name of the archive, or null if none was written
+     * @param commits The number of commits archived
+     * @param blobs The number of blobs archived
+     * @param chunks The number of chunks archived
+     * @param looseBytes The size of the loose files removed
+     * @param archiveBytes The size of the archive
+     * @param nanos The time taken, in nanoseconds
+     */
+    public ArchiveResult(String name, long commits, long blobs, long chunks,
+                         long looseBytes, long archiveBytes, long nanos) {
+        this.name = name;
+        this.commits = commits;
+        this.blobs = blobs;
+        this.chunks = chunks;
+        this.looseBytes = looseBytes;
+        this.archiveBytes = archiveBytes;
+        this.nanos = nanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCommits() {
+        return commits;
+    }
+
+    public long getBlobs() {
+        return blobs;
+    }
+
+    public long getChunks() {
+        return chunks;
+    }
+
+    public long getLooseBytes() {
+        return looseBytes;
+    }
+
+    public long getArchiveBytes() {
+        return archiveBytes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+}
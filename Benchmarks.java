@@ -0,0 +1,283 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmarks for Gitlet's core operations, from hashing and serialization up to
+ * whole commands on generated repositories. Each benchmark is warmed up, then run
+ * for a fixed time, and reported as an average time per operation.
+ *
+ * Usage: java gitlet.Benchmarks [SIZE] [--json FILE] [--filter TEXT]
+ * where SIZE is the number of files in generated repositories and commits in
+ * generated histories (default 1000), FILE receives the results as JSON so they
+ * can be compared across versions, and TEXT limits the run to benchmarks whose
+ * names contain it.
+ */
+class Benchmarks {
+
+    /** Nanoseconds spent warming up each benchmark. */
+    private static final long WARMUP_NS = 1_000_000_000L;
+
+    /** Nanoseconds spent measuring each benchmark. */
+    private static final long MEASURE_NS = 2_000_000_000L;
+
+    /** Histories with merges are capped at this many rounds of merging, since
+     *  latestAncestor explores every path through them and each round doubles
+     *  the number of paths. */
+    private static final int MAX_MERGE_ROUNDS = 12;
+
+    /** The results so far, as JSON objects. */
+    private final List<String> results = new ArrayList<>();
+
+    /** Only benchmarks whose names contain this are run. */
+    private final String filter;
+
+    /** The size parameter of this run. */
+    private final int size;
+
+    /** The scratch directory holding generated repositories. */
+    private final File scratch;
+
+    private Benchmarks(int size, String filter) throws IOException {
+        this.size = size;
+        this.filter = filter;
+        scratch = Files.createTempDirectory("gitlet-bench").toFile();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int size = 1000;
+        String json = null;
+        String filter = "";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--json")) {
+                json = args[++i];
+            } else if (args[i].equals("--filter")) {
+                filter = args[++i];
+            } else {
+                size = Integer.parseInt(args[i]);
+            }
+        }
+
+        Benchmarks b = new Benchmarks(size, filter);
+        try {
+            b.runAll();
+        } finally {
+            deleteRecursively(b.scratch);
+        }
+        if (json != null) {
+            Utils.writeContents(new File(json), "[\n" + String.join(",\n", b.results) + "\n]\n");
+        }
+    }
+
+    private void runAll() {
+        byte[] data = new byte[4096];
+        new Random(0).nextBytes(data);
+        measure("sha1.4k", null, () -> Utils.sha1(data));
+        measure("sha1.4k.raw", null, () -> Sha1.digest(data));
+        measure("sha1.4k.perCallDigest", null, () -> perCallSha1(data));
+        String text = "x".repeat(200);
+        measure("sha1.commitString", null, () -> Utils.sha1(text));
+        measure("sha1.commitString.perCallDigest", null,
+            () -> perCallSha1(text.getBytes(StandardCharsets.UTF_8)));
+        byte[] id = Sha1.digest(data);
+        measure("sha1.toHex", null, () -> Sha1.toHex(id));
+
+        HashMap<String, Blob> blobs = new HashMap<>();
+        File tmp = new File(scratch, "blob");
+        for (int i = 0; i < size; i++) {
+            Utils.writeContents(tmp, "file " + i);
+            blobs.put("file" + i + ".txt", new Blob(tmp));
+        }
+        Commit big = new Commit("big", new Date(), null, blobs, null);
+        byte[] serialized = Utils.serialize(big);
+        File bigFile = new File(scratch, "big");
+        Utils.writeContents(bigFile, serialized);
+        measure("serialize.commit", null, () -> Utils.serialize(big));
+        measure("readObject.commit", null, () -> Utils.readObject(bigFile, Commit.class));
+
+        Repository tree = generateTree("tree");
+        String commitId = Commit.getSha1(tree.getCurrentCommit());
+        String blobId = tree.getCurrentCommit().getMap().get("file0.txt");
+        File root = tree.getWorkingDirectory();
+        measure("loadCommit", null, () -> new Repository(root).loadCommit(commitId));
+        measure("loadBlob", null, () -> tree.loadBlob(blobId));
+
+        ancestorBenchmarks();
+
+        measure("status", null, tree::status);
+        int[] counter = {0};
+        File f0 = new File(root, "file0.txt");
+        measure("commit.oneFile", () -> {
+            Utils.writeContents(f0, "edit " + counter[0]++);
+            tree.add("file0.txt");
+        }, () -> tree.commit("edit"));
+
+        tree.branch("side");
+        Utils.writeContents(f0, "side");
+        tree.add("file0.txt");
+        tree.commit("main edit");
+        String[] next = {"side"};
+        measure("checkout.branch", null, () -> {
+            tree.checkoutBranch(next[0]);
+            next[0] = next[0].equals("side") ? "main" : "side";
+        });
+
+        measure("merge", () -> {
+            String name = "m" + counter[0]++;
+            if (!tree.getHeadName().equals("main")) {
+                tree.checkoutBranch("main");
+            }
+            tree.branch(name);
+            tree.checkoutBranch(name);
+            Utils.writeContents(new File(root, name + ".txt"), name);
+            tree.add(name + ".txt");
+            tree.commit(name);
+            tree.checkoutBranch("main");
+            Utils.writeContents(f0, name);
+            tree.add("file0.txt");
+            tree.commit(name + " on main");
+            next[0] = name;
+        }, () -> tree.merge(next[0]));
+    }
+
+    /** Measures latestAncestor on synthetic linear, bushy and criss-cross histories. */
+    private void ancestorBenchmarks() {
+        Repository repo = generateEmpty("histories");
+        Commit root = writeCommit(repo, "root", null, null);
+
+        Commit tip = root;
+        for (int i = 0; i < size; i++) {
+            tip = writeCommit(repo, "linear " + i, tip, null);
+        }
+        Commit linearTip = tip;
+        measure("latestAncestor.linear", null, () -> repo.latestAncestor(linearTip, root));
+
+        Commit trunk = root;
+        for (int i = 0; i < Math.min(size, MAX_MERGE_ROUNDS); i++) {
+            Commit side = writeCommit(repo, "side " + i, trunk, null);
+            trunk = writeCommit(repo, "trunk " + i, trunk, null);
+            trunk = writeCommit(repo, "merge " + i, trunk, side);
+        }
+        Commit bushyTip = trunk;
+        Commit bushyOther = writeCommit(repo, "other", root, null);
+        measure("latestAncestor.bushy", null, () -> repo.latestAncestor(bushyTip, bushyOther));
+
+        Commit a = writeCommit(repo, "a", root, null);
+        Commit b = writeCommit(repo, "b", root, null);
+        for (int i = 0; i < Math.min(size, MAX_MERGE_ROUNDS); i++) {
+            Commit a2 = writeCommit(repo, "a " + i, a, b);
+            b = writeCommit(repo, "b " + i, b, a);
+            a = a2;
+        }
+        Commit crossA = a;
+        Commit crossB = b;
+        measure("latestAncestor.crissCross", null, () -> repo.latestAncestor(crossA, crossB));
+    }
+
+    /** Hashes DATA the way Utils.sha1 did before Sha1 existed, with a new
+     *  MessageDigest and Formatter per call, as a point of comparison. */
+    private static String perCallSha1(byte[] data) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(data);
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Writes a Commit with parents PARENT and PARENT2 straight into REPO's commits
+     *  directory, leaving its branches alone, and returns it. */
+    private Commit writeCommit(Repository repo, String message, Commit parent, Commit parent2) {
+        Commit c = new Commit(message, new Date(0), parent, new HashMap<String, String>(),
+                parent2);
+        File commits = Utils.join(repo.getWorkingDirectory(), ".gitlet", "commits");
+        Utils.writeObject(Utils.join(commits, Commit.getSha1(c)), c);
+        return c;
+    }
+
+    /** Returns a new, empty repository in the scratch directory NAME. */
+    private Repository generateEmpty(String name) {
+        File dir = new File(scratch, name);
+        dir.mkdirs();
+        Repository repo = new Repository(dir, "off");
+        repo.init();
+        return repo;
+    }
+
+    /** Returns a new repository in the scratch directory NAME whose head commit
+     *  tracks SIZE small files. */
+    private Repository generateTree(String name) {
+        Repository repo = generateEmpty(name);
+        String[] names = new String[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = "file" + i + ".txt";
+            Utils.writeContents(new File(repo.getWorkingDirectory(), names[i]), "file " + i);
+        }
+        repo.add(names);
+        repo.commit("generated");
+        return repo;
+    }
+
+    /** Runs the benchmark NAME, timing only OP. SETUP, if not null, is run untimed
+     *  before every OP; otherwise OP is timed in batches. */
+    private void measure(String name, Runnable setup, Runnable op) {
+        if (!name.contains(filter)) {
+            return;
+        }
+        run(setup, op, WARMUP_NS);
+        long[] stats = run(setup, op, MEASURE_NS);
+        double nsPerOp = (double) stats[1] / stats[0];
+        System.out.printf(Locale.ROOT, "%-28s %12d ops %16.1f ns/op%n", name, stats[0], nsPerOp);
+        results.add(String.format(Locale.ROOT, "  {\"benchmark\": \"gitlet.%s\", "
+                + "\"mode\": \"avgt\", \"params\": {\"size\": \"%d\"}, "
+                + "\"primaryMetric\": {\"score\": %.3f, \"scoreUnit\": \"ns/op\"}, "
+                + "\"operations\": %d}", name, size, nsPerOp, stats[0]));
+    }
+
+    /** Runs OP for roughly BUDGET nanoseconds of timed work, and returns the number
+     *  of operations and the nanoseconds they took. */
+    private static long[] run(Runnable setup, Runnable op, long budget) {
+        long ops = 0;
+        long elapsed = 0;
+        int batch = setup == null ? 64 : 1;
+        while (elapsed < budget) {
+            if (setup != null) {
+                setup.run();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                op.run();
+            }
+            elapsed += System.nanoTime() - start;
+            ops += batch;
+        }
+        return new long[]{ops, elapsed};
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteRecursively(c);
+            }
+        }
+        f.delete();
+    }
+}
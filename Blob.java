@@ -1,12 +1,28 @@
 package gitlet;
+import java.io.IOException;
 import java.io.Serializable;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 /**
  * Represents a Gitlet Blob. Each Blob maintains a saved version of a file.
  */
 public class Blob implements Serializable {
 
+    /** Fixed, so that adding constructors does not make old Blobs unreadable. */
+    private static final long serialVersionUID = 250522594696202924L;
+
+    /** The start of every serialized Blob, up to the length of its contents, which
+     *  follow it directly and end the stream. */
+    private static final byte[] HEADER;
+
+    static {
+        byte[] empty = Utils.serialize(new Blob(new byte[0]));
+        HEADER = Arrays.copyOf(empty, empty.length - 4);
+    }
+
     /** The file contents of this Blob. */
     private byte[] contents;
 
@@ -17,11 +33,32 @@ public class Blob implements Serializable {
         contents = Utils.readContents(f);
     }
 
+    /** Create a new Blob object holding CONTENTS. */
+    public Blob(byte[] contents) {
+        this.contents = contents;
+    }
+
     /** Returns the file contents of this Blob. */
     public byte[] getContents() {
         return contents;
     }
 
+    /** Returns the position in the serialized Blob read by CH at which its file
+     *  contents begin, so that they can be copied without deserializing them, or -1
+     *  if CH does not hold a serialized Blob laid out that way. */
+    static long contentsOffset(FileChannel ch) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(HEADER.length + 4);
+        while (head.hasRemaining() && ch.read(head, head.position()) > 0) {
+            continue;
+        }
+        if (head.hasRemaining()
+                || !Arrays.equals(head.array(), 0, HEADER.length, HEADER, 0, HEADER.length)) {
+            return -1;
+        }
+        long length = head.getInt(HEADER.length) & 0xffffffffL;
+        return ch.size() == head.capacity() + length ? head.capacity() : -1;
+    }
+
     /** Returns the SHA-1 ID of this Blob.
      * @param b A Blob.
      */
@@ -0,0 +1,220 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * A large file stored as content-defined chunks. The file is cut wherever a rolling
+ * hash of the last few dozen bytes hits a pattern (FastCDC), so an edit moves only the
+ * cuts near it, and the chunks elsewhere keep their IDs and are stored once. In the
+ * blobs directory, under the ID of the whole file, a manifest lists the chunks in
+ * order; the chunks themselves are raw files in the chunks directory, named by the
+ * SHA-1 ID of their bytes.
+ *
+ * A manifest is the magic number, the file's length, the number of chunks, and for
+ * each chunk its 20-byte ID and its length. It never begins like a serialized Blob,
+ * so the two kinds of blob file can share a directory.
+ */
+class ChunkedBlob {
+
+    /** Files at least this long are chunked. */
+    static final long THRESHOLD = 1 << 20;
+
+    /** The smallest chunk, except the last. */
+    static final int MIN_SIZE = 16 * 1024;
+
+    /** The typical chunk size. */
+    static final int AVG_SIZE = 64 * 1024;
+
+    /** The largest chunk. */
+    static final int MAX_SIZE = 256 * 1024;
+
+    /** The cut mask used before AVG_SIZE: two more bits than AVG_SIZE implies, so
+     *  small chunks are rarer. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+
+    /** The cut mask used after AVG_SIZE: two fewer bits, so large chunks are rarer. */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+
+    /** The first four bytes of a manifest: "GLCM". */
+    private static final int MAGIC = 0x474c434d;
+
+    /** A fixed random value for each byte, mixed into the rolling hash. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random r = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = r.nextLong();
+        }
+    }
+
+    /** The SHA-1 ID of the whole file. */
+    private final String id;
+
+    /** The length of the whole file. */
+    private final long length;
+
+    /** The SHA-1 IDs of the chunks, in order. */
+    private final List<String> chunkIds;
+
+    /** The lengths of the chunks, in order. */
+    private final List<Integer> chunkLengths;
+
+    private ChunkedBlob(String id, long length, List<String> chunkIds,
+                        List<Integer> chunkLengths) {
+        this.id = id;
+        this.length = length;
+        this.chunkIds = chunkIds;
+        this.chunkLengths = chunkLengths;
+    }
+
+    /** Cuts the file SOURCE into chunks, handing each to STORECHUNK with its SHA-1 ID,
+     *  and returns the manifest. Chunks are passed in a reused buffer, which
+     *  STORECHUNK must not keep. */
+    static ChunkedBlob write(File source, BiConsumer<String, ByteBuffer> storeChunk) {
+        try (InputStream in = new FileInputStream(source)) {
+            return write(in, storeChunk);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
+    /** Cuts the contents of IN into chunks, as for write(File, BiConsumer). */
+    static ChunkedBlob write(InputStream in, BiConsumer<String, ByteBuffer> storeChunk) {
+        MessageDigest whole;
+        try {
+            whole = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+        List<String> ids = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        long total = 0;
+        byte[] buf = new byte[2 * MAX_SIZE];
+        int start = 0;
+        int end = 0;
+        try {
+            boolean eof = false;
+            while (true) {
+                if (!eof && end - start < MAX_SIZE) {
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    int n = in.readNBytes(buf, end, buf.length - end);
+                    end += n;
+                    eof = end < buf.length;
+                }
+                if (start == end) {
+                    break;
+                }
+                int size = cut(buf, start, end - start);
+                whole.update(buf, start, size);
+                String chunkId = Sha1.toHex(Sha1.digest(ByteBuffer.wrap(buf, start, size)));
+                storeChunk.accept(chunkId, ByteBuffer.wrap(buf, start, size));
+                ids.add(chunkId);
+                lengths.add(size);
+                total += size;
+                start += size;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+        return new ChunkedBlob(Sha1.toHex(whole.digest()), total, ids, lengths);
+    }
+
+    /** Returns the length of the first chunk of the LEN bytes of BUF at OFF. */
+    static int cut(byte[] buf, int off, int len) {
+        if (len <= MIN_SIZE) {
+            return len;
+        }
+        int n = Math.min(len, MAX_SIZE);
+        int normal = Math.min(AVG_SIZE, n);
+        long fp = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            fp = (fp << 1) + GEAR[buf[off + i] & 0xff];
+            if ((fp & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i++) {
+            fp = (fp << 1) + GEAR[buf[off + i] & 0xff];
+            if ((fp & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+
+    /** Returns whether the blob file DATA is a manifest. */
+    static boolean isManifest(byte[] head) {
+        return head.length >= 4 && ((head[0] & 0xff) << 24 | (head[1] & 0xff) << 16
+                | (head[2] & 0xff) << 8 | (head[3] & 0xff)) == MAGIC;
+    }
+
+    /** Returns the manifest DATA, stored as the blob ID. Throws
+     *  IllegalArgumentException if it is not one. */
+    static ChunkedBlob parse(String id, byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("not a chunk manifest: " + id);
+            }
+            long length = in.readLong();
+            int count = in.readInt();
+            List<String> ids = new ArrayList<>(count);
+            List<Integer> lengths = new ArrayList<>(count);
+            byte[] raw = new byte[Sha1.LENGTH];
+            for (int i = 0; i < count; i++) {
+                in.readFully(raw);
+                ids.add(Sha1.toHex(raw));
+                lengths.add(in.readInt());
+            }
+            return new ChunkedBlob(id, length, ids, lengths);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
+    /** Returns the bytes of this manifest as stored. */
+    byte[] toBytes() {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(result)) {
+            out.writeInt(MAGIC);
+            out.writeLong(length);
+            out.writeInt(chunkIds.size());
+            for (int i = 0; i < chunkIds.size(); i++) {
+                out.write(Sha1.fromHex(chunkIds.get(i)));
+                out.writeInt(chunkLengths.get(i));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+        return result.toByteArray();
+    }
+
+    String getId() {
+        return id;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    List<String> getChunkIds() {
+        return chunkIds;
+    }
+}
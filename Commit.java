@@ -1,14 +1,52 @@
 package gitlet;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.security.MessageDigest;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
 
 /** Represents a Gitlet Commit object.
  *  Each Commit saves a "snapshot" of files in the working directory.
+ *
+ *  The snapshot is held compactly: the tracked file names, sorted and interned,
+ *  and their raw 20-byte Blob IDs packed into a single array in the same order.
+ *  Lookups binary-search the names, and getMap decodes hexadecimal IDs only as
+ *  they are read. Commits written before this layout, which held a HashMap, are
+ *  still read.
  */
 public class Commit implements Serializable {
 
+    /** Unchanged from the original layout, so that old Commits can still be read. */
+    private static final long serialVersionUID = 5169071487627281624L;
+
+    /** The serialized form: the fields below, plus the legacy blobsMap, which is
+     *  written as null and read only from old Commits. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("message", String.class),
+        new ObjectStreamField("timestamp", Date.class),
+        new ObjectStreamField("parent", String.class),
+        new ObjectStreamField("parent2", String.class),
+        new ObjectStreamField("isMerge", boolean.class),
+        new ObjectStreamField("paths", String[].class),
+        new ObjectStreamField("ids", byte[].class),
+        new ObjectStreamField("id", String.class),
+        new ObjectStreamField("blobsMap", HashMap.class),
+    };
+
     /** The message of this Commit. */
     private String message;
 
@@ -24,25 +62,63 @@ public class Commit implements Serializable {
     /** Whether this Commit is a merge or not. */
     private boolean isMerge;
 
-    /** A Map that maps names of files in this Commit to Blob SHA-1 IDs. */
-    private HashMap<String, String> blobsMap;
+    /** The names of files in this Commit, sorted and interned. */
+    private String[] paths;
+
+    /** The raw Blob IDs of the files in paths, Sha1.LENGTH bytes each, in the same order. */
+    private byte[] ids;
+
+    /** The SHA-1 ID of this Commit, fixed when it is created. */
+    private String id;
+
+    /** A Map view of paths and ids, made on first use. */
+    private transient Map<String, String> mapView;
+
+    /** Whether id was computed from the contents as this Commit was read, as it is
+     *  for old Commits, rather than read with them. */
+    private transient boolean idComputed;
 
     public Commit(String message, Date timestamp, Commit parent, HashMap<String,
             Blob> blobs, Commit parent2) {
+        this(message, timestamp, parent, blobIds(blobs), parent2);
+    }
+
+    /** Create a Commit whose files are the keys of BLOBIDS, each mapped to the SHA-1
+     *  ID of its Blob, so that no Blob need be loaded to build it. */
+    public Commit(String message, Date timestamp, Commit parent, Map<String, String> blobIds,
+                  Commit parent2) {
         this.message = message;
         this.timestamp = timestamp;
         this.parent = Commit.getSha1(parent);
+        setEntries(new TreeMap<>(blobIds));
+
+        this.parent2 = Commit.getSha1(parent2);
+        if (parent2 != null) {
+            isMerge = true;
+        }
+        id = computeId();
+    }
 
-        blobsMap = new HashMap<>();
+    /** Returns the SHA-1 IDs of the Blobs in BLOBS, by file name. */
+    private static Map<String, String> blobIds(HashMap<String, Blob> blobs) {
+        Map<String, String> result = new HashMap<>();
         if (blobs != null) {
             for (String s : blobs.keySet()) {
-                blobsMap.put(s, Blob.getSha1(blobs.get(s)));
+                result.put(s, Blob.getSha1(blobs.get(s)));
             }
         }
+        return result;
+    }
 
-        this.parent2 = Commit.getSha1(parent2);
-        if (parent2 != null) {
-            isMerge = true;
+    /** Sets paths and ids from SORTED, which maps file names to Blob IDs in order. */
+    private void setEntries(Map<String, String> sorted) {
+        paths = new String[sorted.size()];
+        ids = new byte[sorted.size() * Sha1.LENGTH];
+        int i = 0;
+        for (Map.Entry<String, String> e : sorted.entrySet()) {
+            paths[i] = e.getKey().intern();
+            System.arraycopy(Sha1.fromHex(e.getValue()), 0, ids, i * Sha1.LENGTH, Sha1.LENGTH);
+            i++;
         }
     }
 
@@ -66,22 +142,188 @@ public class Commit implements Serializable {
         return isMerge;
     }
 
-    public HashMap<String, String> getMap() {
-        return blobsMap;
+    /** Returns a read-only Map from the names of files in this Commit to their Blob IDs,
+     *  iterated in name order. */
+    public Map<String, String> getMap() {
+        if (mapView == null) {
+            mapView = new EntryMap();
+        }
+        return mapView;
+    }
+
+    /** Returns whether this Commit tracks the file PATH. */
+    public boolean contains(String path) {
+        return Arrays.binarySearch(paths, path) >= 0;
+    }
+
+    /** Returns the Blob ID of the file PATH in this Commit, or null if it is not tracked. */
+    public String getBlobId(String path) {
+        int i = Arrays.binarySearch(paths, path);
+        return i < 0 ? null : idAt(i);
+    }
+
+    /** Returns the names of files added, removed or changed in this Commit relative to
+     *  PARENT, in name order. Every file counts as added if PARENT is null. */
+    public List<String> changedPaths(Commit parent) {
+        List<String> result = new ArrayList<>();
+        String[] others = parent == null ? new String[0] : parent.paths;
+        int i = 0;
+        int j = 0;
+        while (i < paths.length || j < others.length) {
+            int cmp = i == paths.length ? 1 : j == others.length ? -1
+                    : paths[i].compareTo(others[j]);
+            if (cmp < 0) {
+                result.add(paths[i++]);
+            } else if (cmp > 0) {
+                result.add(others[j++]);
+            } else {
+                if (!Arrays.equals(ids, i * Sha1.LENGTH, (i + 1) * Sha1.LENGTH,
+                        parent.ids, j * Sha1.LENGTH, (j + 1) * Sha1.LENGTH)) {
+                    result.add(paths[i]);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal Blob ID of the Ith file. */
+    private String idAt(int i) {
+        return Sha1.toHex(Arrays.copyOfRange(ids, i * Sha1.LENGTH, (i + 1) * Sha1.LENGTH));
     }
 
     public String toString() {
-        String blobs = "";
-        for (String s : blobsMap.values()) {
-            blobs += s + " ";
+        StringBuilder blobs = new StringBuilder();
+        for (int i = 0; i < paths.length; i++) {
+            blobs.append(idAt(i)).append(' ');
         }
         return message + " " + timestamp.toString() + " " + parent + " " + parent2 + " " + blobs;
     }
 
+    /** Returns whether this Commit's contents hash to its SHA-1 ID, as they do unless
+     *  its file was damaged. getSha1 returns the ID without checking. */
+    public boolean isIntact() {
+        return idComputed || computeId().equals(id);
+    }
+
+    /** Returns the SHA-1 hash of toString(), without building it: the IDs of the
+     *  files are hashed straight from their raw form. */
+    private String computeId() {
+        long start = Stats.begin();
+        MessageDigest md = Sha1.start();
+        long length = Sha1.update(md, message + " " + timestamp.toString() + " " + parent
+            + " " + parent2 + " ");
+        int width = 2 * Sha1.LENGTH + 1;
+        byte[] hex = new byte[paths.length * width];
+        for (int i = 0; i < paths.length; i++) {
+            Sha1.toHex(ids, i * Sha1.LENGTH, Sha1.LENGTH, hex, i * width);
+            hex[i * width + width - 1] = ' ';
+        }
+        md.update(hex);
+        length += hex.length;
+        String result = Sha1.toHex(md.digest());
+        Stats.end(Stats.Op.SHA1, start, length);
+        return result;
+    }
+
     public static String getSha1(Commit c) {
         if (c == null) {
             return "";
         }
-        return Utils.sha1(c.toString());
+        return c.id;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("message", message);
+        fields.put("timestamp", timestamp);
+        fields.put("parent", parent);
+        fields.put("parent2", parent2);
+        fields.put("isMerge", isMerge);
+        fields.put("paths", paths);
+        fields.put("ids", ids);
+        fields.put("id", id);
+        fields.put("blobsMap", null);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        message = (String) fields.get("message", null);
+        timestamp = (Date) fields.get("timestamp", null);
+        parent = (String) fields.get("parent", null);
+        parent2 = (String) fields.get("parent2", null);
+        isMerge = fields.get("isMerge", false);
+        HashMap<String, String> blobsMap = (HashMap<String, String>) fields.get("blobsMap", null);
+        if (blobsMap == null) {
+            paths = (String[]) fields.get("paths", null);
+            ids = (byte[]) fields.get("ids", null);
+            id = (String) fields.get("id", null);
+            for (int i = 0; i < paths.length; i++) {
+                paths[i] = paths[i].intern();
+            }
+            return;
+        }
+
+        /* An old Commit was named by hashing its Blob IDs in blobsMap's iteration order. */
+        StringBuilder blobs = new StringBuilder();
+        for (String s : blobsMap.values()) {
+            blobs.append(s).append(' ');
+        }
+        id = Utils.sha1(message + " " + timestamp.toString() + " " + parent + " " + parent2
+                + " " + blobs);
+        idComputed = true;
+        setEntries(new TreeMap<>(blobsMap));
+    }
+
+    /** A read-only Map view of paths and ids. */
+    private class EntryMap extends AbstractMap<String, String> {
+        @Override
+        public int size() {
+            return paths.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && contains((String) key);
+        }
+
+        @Override
+        public String get(Object key) {
+            return key instanceof String ? getBlobId((String) key) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public int size() {
+                    return paths.length;
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < paths.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int i = next++;
+                            return new AbstractMap.SimpleImmutableEntry<>(paths[i], idAt(i));
+                        }
+                    };
+                }
+            };
+        }
     }
 }
@@ -0,0 +1,224 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The commit-graph side file, which records for each Commit its parents and a Bloom
+ * filter of the paths it changed relative to its first parent. History walks use it
+ * to follow parents, and to skip commits that certainly did not touch a path, without
+ * deserializing the commits themselves.
+ *
+ * The file is a sequence of records, appended as commits are made: a 20-byte commit ID,
+ * two 20-byte parent IDs (zero if absent), a flag byte, a 2-byte filter length and the
+ * filter. A record torn by a crash can only be the last; it is ignored, and cut off
+ * before the next record is appended. Commits without a record, such as those made
+ * before the file existed, are added on demand.
+ */
+class CommitGraph {
+
+    /** Bits per changed path in a filter. */
+    private static final int BITS_PER_PATH = 10;
+
+    /** Bit positions set per path. */
+    private static final int HASHES = 7;
+
+    /** Commits changing more paths than this get no filter and always match. */
+    private static final int MAX_PATHS = 512;
+
+    /** The flag for a record whose filter matches every path. */
+    private static final byte MATCH_ALL = 1;
+
+    /** The raw ID of no commit. */
+    private static final byte[] NO_COMMIT = new byte[Sha1.LENGTH];
+
+    /** One commit's record. */
+    static class Entry {
+        /** The SHA-1 ID of the parent, or the empty string. */
+        private final String parent;
+
+        /** The SHA-1 ID of the merge parent, or the empty string. */
+        private final String parent2;
+
+        /** Whether every path matches, regardless of filter. */
+        private final boolean matchAll;
+
+        /** The Bloom filter of changed paths. */
+        private final byte[] filter;
+
+        Entry(String parent, String parent2, boolean matchAll, byte[] filter) {
+            this.parent = parent;
+            this.parent2 = parent2;
+            this.matchAll = matchAll;
+            this.filter = filter;
+        }
+
+        String getParent() {
+            return parent;
+        }
+
+        String getParent2() {
+            return parent2;
+        }
+
+        /** Returns false if this commit certainly did not change PATH. */
+        boolean mayHaveChanged(String path) {
+            if (matchAll) {
+                return true;
+            }
+            if (filter.length == 0) {
+                return false;
+            }
+            int bits = filter.length * 8;
+            for (int i = 0; i < HASHES; i++) {
+                int bit = bitFor(path, i, bits);
+                if ((filter[bit >> 3] & (1 << (bit & 7))) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** The commit-graph file. */
+    private final File file;
+
+    /** The records read or written so far, by commit ID. */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /** The length of the complete records read from the file. */
+    private long validLength;
+
+    /** Create a CommitGraph kept in FILE, reading any records already there. */
+    CommitGraph(File file) {
+        this.file = file;
+        readNewRecords();
+    }
+
+    /** Reads the complete records appended to the file since the last read. */
+    private void readNewRecords() {
+        if (!file.exists()) {
+            return;
+        }
+        try (FileInputStream raw = new FileInputStream(file)) {
+            raw.getChannel().position(validLength);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(raw));
+            byte[] id = new byte[Sha1.LENGTH];
+            byte[] p1 = new byte[Sha1.LENGTH];
+            byte[] p2 = new byte[Sha1.LENGTH];
+            while (true) {
+                in.readFully(id);
+                in.readFully(p1);
+                in.readFully(p2);
+                byte flags = in.readByte();
+                byte[] filter = new byte[in.readUnsignedShort()];
+                in.readFully(filter);
+                entries.put(Sha1.toHex(id), new Entry(hexOrEmpty(p1), hexOrEmpty(p2),
+                        flags == MATCH_ALL, filter));
+                validLength += 3 * Sha1.LENGTH + 3 + filter.length;
+            }
+        } catch (EOFException e) {
+            return;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** Returns the record of the commit ID, or null if it has none. */
+    synchronized Entry get(String id) {
+        Entry e = entries.get(id);
+        if (e == null) {
+            readNewRecords();
+            e = entries.get(id);
+        }
+        return e;
+    }
+
+    /** Records Commit C, whose first parent is PARENT (null if it has none),
+     *  and returns its record. Callers must hold the commit-graph lock. A commit
+     *  another process recorded meanwhile is not recorded twice. */
+    synchronized Entry add(Commit c, Commit parent) {
+        readNewRecords();
+        Entry existing = entries.get(Commit.getSha1(c));
+        if (existing != null) {
+            return existing;
+        }
+        List<String> changed = c.changedPaths(parent);
+        boolean matchAll = changed.size() > MAX_PATHS;
+        byte[] filter = new byte[0];
+        if (!matchAll && !changed.isEmpty()) {
+            int bits = Math.max(64, changed.size() * BITS_PER_PATH);
+            filter = new byte[(bits + 7) / 8];
+            bits = filter.length * 8;
+            for (String path : changed) {
+                for (int i = 0; i < HASHES; i++) {
+                    int bit = bitFor(path, i, bits);
+                    filter[bit >> 3] |= (byte) (1 << (bit & 7));
+                }
+            }
+        }
+        Entry e = new Entry(c.getParent(), c.getParent2(), matchAll, filter);
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(record)) {
+            out.write(Sha1.fromHex(Commit.getSha1(c)));
+            out.write(rawOrZero(c.getParent()));
+            out.write(rawOrZero(c.getParent2()));
+            out.writeByte(matchAll ? MATCH_ALL : 0);
+            out.writeShort(filter.length);
+            out.write(filter);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+        try {
+            readNewRecords();
+            if (file.length() > validLength) {
+                try (RandomAccessFile torn = new RandomAccessFile(file, "rw")) {
+                    torn.setLength(validLength);
+                }
+            }
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                out.write(record.toByteArray());
+            }
+            validLength += record.size();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+        entries.put(Commit.getSha1(c), e);
+        return e;
+    }
+
+    /** Returns the Ith bit position of PATH in a filter of BITS bits, by double hashing. */
+    private static int bitFor(String path, int i, int bits) {
+        int h1 = path.hashCode();
+        int h2 = 0x811c9dc5;
+        for (int k = 0; k < path.length(); k++) {
+            h2 = (h2 ^ path.charAt(k)) * 0x01000193;
+        }
+        return Math.floorMod(h1 + i * (h2 | 1), bits);
+    }
+
+    private static byte[] rawOrZero(String id) {
+        return id == null || id.isEmpty() ? NO_COMMIT : Sha1.fromHex(id);
+    }
+
+    private static String hexOrEmpty(byte[] id) {
+        for (byte b : id) {
+            if (b != 0) {
+                return Sha1.toHex(id);
+            }
+        }
+        return "";
+    }
+}
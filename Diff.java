@@ -0,0 +1,368 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line diffs and rename detection for the diff command.
+ *
+ * Contents are compared with Myers' O(ND) algorithm in its linear-space form: each
+ * step finds the middle snake of an edit script by searching forwards and backwards
+ * at once, then recurses on either side of it, so memory stays proportional to the
+ * input however different the two versions are.
+ *
+ * Renames are found by pairing deleted files with added ones. Identical contents pair
+ * directly; the rest are compared through MinHash signatures of their lines, and only
+ * files whose signatures collide in some band are scored, so the cost grows with the
+ * number of files rather than with added times deleted.
+ */
+class Diff {
+
+    /** Lines of context shown around each change. */
+    private static final int CONTEXT = 3;
+
+    /** Hash functions in a MinHash signature. */
+    private static final int SIGNATURE_SIZE = 32;
+
+    /** Signature rows per band; files sharing any whole band are candidate renames. */
+    private static final int BAND_ROWS = 4;
+
+    /** The least similarity, as a percentage, for a pair of files to count as a rename. */
+    static final int RENAME_THRESHOLD = 50;
+
+    /** The Blob ID of an empty file. */
+    static final String EMPTY_ID = Utils.sha1(new byte[0]);
+
+    /** A region where two sequences differ: elements [beginA, endA) of the first are
+     *  replaced by elements [beginB, endB) of the second. */
+    static class Edit {
+        final int beginA;
+        final int endA;
+        final int beginB;
+        final int endB;
+
+        Edit(int beginA, int endA, int beginB, int endB) {
+            this.beginA = beginA;
+            this.endA = endA;
+            this.beginB = beginB;
+            this.endB = endB;
+        }
+    }
+
+    /** Splits CONTENTS, as UTF-8, into lines that keep their line terminators. */
+    static String[] lines(byte[] contents) {
+        String text = new String(contents, StandardCharsets.UTF_8);
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                result.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            result.add(text.substring(start));
+        }
+        return result.toArray(new String[0]);
+    }
+
+    /** Returns whether CONTENTS looks binary, that is, holds a NUL byte. */
+    static boolean isBinary(byte[] contents) {
+        for (byte b : contents) {
+            if (b == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns a shortest edit script turning the lines A into the lines B. */
+    static List<Edit> edits(String[] a, String[] b) {
+        Map<String, Integer> codes = new HashMap<>();
+        int[] x = new int[a.length];
+        int[] y = new int[b.length];
+        for (int i = 0; i < a.length; i++) {
+            x[i] = codes.computeIfAbsent(a[i], k -> codes.size());
+        }
+        for (int i = 0; i < b.length; i++) {
+            y[i] = codes.computeIfAbsent(b[i], k -> codes.size());
+        }
+        int max = (a.length + b.length + 1) / 2 + 1;
+        int[] forward = new int[2 * max + 1];
+        int[] backward = new int[2 * max + 1];
+        List<Edit> result = new ArrayList<>();
+        diff(x, 0, x.length, y, 0, y.length, forward, backward, max, result);
+        return result;
+    }
+
+    /** Appends to OUT the edits turning A[ALO, AHI) into B[BLO, BHI), using FORWARD and
+     *  BACKWARD, indexed from OFFSET, as the furthest-reaching paths of each diagonal. */
+    private static void diff(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                             int[] forward, int[] backward, int offset, List<Edit> out) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                Edit last = out.isEmpty() ? null : out.get(out.size() - 1);
+                if (last != null && last.endA == aLo && last.endB == bLo) {
+                    out.set(out.size() - 1, new Edit(last.beginA, aHi, last.beginB, bHi));
+                } else {
+                    out.add(new Edit(aLo, aHi, bLo, bHi));
+                }
+            }
+            return;
+        }
+
+        int[] snake = middleSnake(a, aLo, aHi, b, bLo, bHi, forward, backward, offset);
+        diff(a, aLo, snake[0], b, bLo, snake[1], forward, backward, offset, out);
+        diff(a, snake[2], aHi, b, snake[3], bHi, forward, backward, offset, out);
+    }
+
+    /** Returns the start and end points {x, y, u, v} of the middle snake of an
+     *  optimal path from (ALO, BLO) to (AHI, BHI). Both ranges must be non-empty and
+     *  differ at both ends, so the path has at least two edits. */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                     int[] forward, int[] backward, int offset) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+                int r = delta - k;
+                if (odd && r >= -(d - 1) && r <= d - 1 && x + backward[offset + r] >= n) {
+                    return new int[] {aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[offset + k] = x;
+                int f = delta - k;
+                if (!odd && f >= -d && f <= d && x + forward[offset + f] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - y0};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /** Appends to OUT the hunks of a unified diff turning the lines A into the lines B. */
+    static void unified(String[] a, String[] b, StringBuilder out) {
+        List<Edit> edits = edits(a, b);
+        int i = 0;
+        while (i < edits.size()) {
+            int j = i;
+            while (j + 1 < edits.size()
+                    && edits.get(j + 1).beginA - edits.get(j).endA <= 2 * CONTEXT) {
+                j++;
+            }
+            Edit first = edits.get(i);
+            Edit last = edits.get(j);
+            int startA = Math.max(0, first.beginA - CONTEXT);
+            int startB = first.beginB - (first.beginA - startA);
+            int endA = Math.min(a.length, last.endA + CONTEXT);
+            int endB = last.endB + (endA - last.endA);
+            out.append("@@ -").append(range(startA, endA - startA))
+                    .append(" +").append(range(startB, endB - startB)).append(" @@\n");
+            int posA = startA;
+            for (int e = i; e <= j; e++) {
+                Edit edit = edits.get(e);
+                for (; posA < edit.beginA; posA++) {
+                    appendLine(out, ' ', a[posA]);
+                }
+                for (int k = edit.beginA; k < edit.endA; k++) {
+                    appendLine(out, '-', a[k]);
+                }
+                for (int k = edit.beginB; k < edit.endB; k++) {
+                    appendLine(out, '+', b[k]);
+                }
+                posA = edit.endA;
+            }
+            for (; posA < endA; posA++) {
+                appendLine(out, ' ', a[posA]);
+            }
+            i = j + 1;
+        }
+    }
+
+    /** Returns a hunk range of LENGTH lines starting at the 0-based line START. */
+    private static String range(int start, int length) {
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    private static void appendLine(StringBuilder out, char prefix, String line) {
+        out.append(prefix).append(line);
+        if (!line.endsWith("\n")) {
+            out.append("\n\\ No newline at end of file\n");
+        }
+    }
+
+    /** Returns CHANGES with deleted and added files that appear to be the same file
+     *  replaced by renames, in the order of the original changes. Identical files are
+     *  paired by Blob ID; only the rest are read to compare their lines. */
+    static List<FileChange> detectRenames(List<FileChange> changes) {
+        List<FileChange> deleted = new ArrayList<>();
+        List<FileChange> added = new ArrayList<>();
+        for (FileChange c : changes) {
+            if (c.getKind() == FileChange.Kind.DELETED && !c.getOldId().equals(EMPTY_ID)) {
+                deleted.add(c);
+            } else if (c.getKind() == FileChange.Kind.ADDED && !c.getNewId().equals(EMPTY_ID)) {
+                added.add(c);
+            }
+        }
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return changes;
+        }
+
+        Map<FileChange, FileChange> renames = new HashMap<>();
+        Map<FileChange, Integer> scores = new HashMap<>();
+        Map<String, FileChange> byId = new HashMap<>();
+        for (FileChange d : deleted) {
+            byId.putIfAbsent(d.getOldId(), d);
+        }
+        for (FileChange c : added) {
+            FileChange d = byId.remove(c.getNewId());
+            if (d != null) {
+                renames.put(d, c);
+                renames.put(c, d);
+                scores.put(c, 100);
+            }
+        }
+
+        /* Score every pair that shares a band of their signatures, best first. */
+        Map<FileChange, int[]> signatures = new HashMap<>();
+        Map<Long, List<FileChange>> buckets = new HashMap<>();
+        for (FileChange d : deleted) {
+            if (!renames.containsKey(d) && !isBinary(d.getOldContents())) {
+                int[] sig = signature(d.getOldContents());
+                signatures.put(d, sig);
+                for (int band = 0; band < SIGNATURE_SIZE / BAND_ROWS; band++) {
+                    buckets.computeIfAbsent(bandKey(sig, band), k -> new ArrayList<>()).add(d);
+                }
+            }
+        }
+        List<long[]> candidates = new ArrayList<>();
+        List<FileChange[]> pairs = new ArrayList<>();
+        for (FileChange c : added) {
+            if (renames.containsKey(c) || isBinary(c.getNewContents())) {
+                continue;
+            }
+            int[] sig = signature(c.getNewContents());
+            List<FileChange> seen = new ArrayList<>();
+            for (int band = 0; band < SIGNATURE_SIZE / BAND_ROWS; band++) {
+                for (FileChange d : buckets.getOrDefault(bandKey(sig, band), List.of())) {
+                    if (seen.contains(d)) {
+                        continue;
+                    }
+                    seen.add(d);
+                    /* Only identical contents, paired above, are a 100% match. */
+                    int score = Math.min(similarity(signatures.get(d), sig), 99);
+                    if (score >= RENAME_THRESHOLD) {
+                        candidates.add(new long[] {score, pairs.size()});
+                        pairs.add(new FileChange[] {d, c});
+                    }
+                }
+            }
+        }
+        candidates.sort((p, q) -> p[0] != q[0] ? Long.compare(q[0], p[0])
+                : Long.compare(p[1], q[1]));
+        for (long[] candidate : candidates) {
+            FileChange[] pair = pairs.get((int) candidate[1]);
+            if (!renames.containsKey(pair[0]) && !renames.containsKey(pair[1])) {
+                renames.put(pair[0], pair[1]);
+                renames.put(pair[1], pair[0]);
+                scores.put(pair[1], (int) candidate[0]);
+            }
+        }
+
+        List<FileChange> result = new ArrayList<>();
+        for (FileChange c : changes) {
+            FileChange other = renames.get(c);
+            if (other == null) {
+                result.add(c);
+            } else if (c.getKind() == FileChange.Kind.ADDED) {
+                result.add(new FileChange(FileChange.Kind.RENAMED, other.getOldName(),
+                        c.getNewName(), other.getOldId(), c.getNewId(),
+                        other::getOldContents, c::getNewContents, scores.get(c)));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the MinHash signature of the set of lines of CONTENTS. */
+    private static int[] signature(byte[] contents) {
+        int[] sig = new int[SIGNATURE_SIZE];
+        Arrays.fill(sig, Integer.MAX_VALUE);
+        for (String line : lines(contents)) {
+            int h = line.strip().hashCode();
+            for (int i = 0; i < SIGNATURE_SIZE; i++) {
+                int v = mix(h + i * 0x9e3779b9) & Integer.MAX_VALUE;
+                if (v < sig[i]) {
+                    sig[i] = v;
+                }
+            }
+        }
+        return sig;
+    }
+
+    /** Returns the percentage of positions at which signatures A and B agree, which
+     *  estimates the overlap of the two sets of lines. */
+    private static int similarity(int[] a, int[] b) {
+        int same = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i]) {
+                same++;
+            }
+        }
+        return same * 100 / a.length;
+    }
+
+    /** Returns a key for the rows of SIG in BAND, distinct across bands. */
+    private static long bandKey(int[] sig, int band) {
+        long key = band;
+        for (int i = band * BAND_ROWS; i < (band + 1) * BAND_ROWS; i++) {
+            key = key * 0x100000001b3L + sig[i];
+        }
+        return key;
+    }
+
+    /** Scrambles the bits of H (the MurmurHash3 finalizer). */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
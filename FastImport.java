@@ -0,0 +1,375 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.error;
+
+/**
+ * Reads a stream of commits, in a format modelled on git fast-import, and writes
+ * their objects straight to the store. The tree of each branch's newest commit is
+ * kept in memory and edited in place, and blobs go through an ObjectWriter. Commits
+ * are held back until a checkpoint every CHECKPOINT commits, which waits for the
+ * blob writes, stores the commits and makes everything durable, so no commit is
+ * stored before the blobs it refers to. Branches are left for the caller to update
+ * once at the end. If the import fails, the blob writes under way are waited for
+ * and the commits held back are dropped.
+ *
+ * The stream is a sequence of commands, each a line of UTF-8 text; blank lines and
+ * lines starting with '#' between commands are skipped.
+ *
+ *   commit BRANCH
+ *   mark :N              optional; names the commit :N for later commands
+ *   date SECONDS         optional; seconds since the epoch, or now if left out
+ *   from REF             optional; the first parent, or BRANCH's newest commit
+ *   merge REF            optional; the second parent
+ *   data LENGTH          followed by LENGTH bytes of commit message
+ *   M PATH               followed by "data LENGTH" and the file's new contents
+ *   D PATH               deletes the file PATH
+ *
+ * The M and D lines, any number of them, end the commit; each file starts from its
+ * version in the first parent. A REF is :N, a branch name, or a full commit ID.
+ * Any data may be followed by one optional newline.
+ */
+class FastImport {
+
+    /** Objects are made durable after this many commits. */
+    private static final int CHECKPOINT = 1000;
+
+    /** Writes blobs. */
+    private final ObjectWriter writer;
+
+    /** Returns whether a blob is already stored, given its ID. */
+    private final Predicate<String> hasBlob;
+
+    /** Loads a stored commit, given its ID, or returns null. */
+    private final Function<String, Commit> loadCommit;
+
+    /** Stores a commit, given it and its first parent or null. */
+    private final BiConsumer<Commit, Commit> saveCommit;
+
+    /** Returns the head commit ID of a branch of the repository, or null. Called for
+     *  each branch before the first commit to it. */
+    private final Function<String, String> branchHead;
+
+    /** Makes every object written so far durable. */
+    private final Runnable checkpoint;
+
+    /** The input. */
+    private BufferedInputStream in;
+
+    /** The number of the last line read. */
+    private int lineNumber;
+
+    /** A line read but not yet handled, or null. */
+    private String pending;
+
+    /** The newest commit of each branch imported into, by name. */
+    private final Map<String, Commit> tips = new LinkedHashMap<>();
+
+    /** The files of each commit in tips, by branch name. */
+    private final Map<String, TreeMap<String, String>> trees = new HashMap<>();
+
+    /** The commit IDs named by marks. */
+    private final Map<String, String> marks = new HashMap<>();
+
+    /** The IDs of the blobs written or found so far. */
+    private final Set<String> knownBlobs = new HashSet<>();
+
+    /** Blob writes not yet known to be finished. */
+    private final List<CompletableFuture<Void>> writes = new ArrayList<>();
+
+    /** The commits imported since the last checkpoint, by ID, in the order they were
+     *  imported. */
+    private final Map<String, Commit> unpublished = new LinkedHashMap<>();
+
+    /** The number of commits imported. */
+    private long commits;
+
+    /** The number of new blobs written. */
+    private long blobs;
+
+    /** The number of bytes of new blob contents. */
+    private long bytes;
+
+    FastImport(ObjectWriter writer, Predicate<String> hasBlob,
+               Function<String, Commit> loadCommit, BiConsumer<Commit, Commit> saveCommit,
+               Function<String, String> branchHead, Runnable checkpoint) {
+        this.writer = writer;
+        this.hasBlob = hasBlob;
+        this.loadCommit = loadCommit;
+        this.saveCommit = saveCommit;
+        this.branchHead = branchHead;
+        this.checkpoint = checkpoint;
+    }
+
+    /** Imports every commit in INPUT. Throws a GitletException, naming the line, if it
+     *  is malformed. Whether it returns or throws, no blob write is still running;
+     *  commits stored at earlier checkpoints are left for the caller to remove on
+     *  failure. */
+    void run(InputStream input) {
+        in = new BufferedInputStream(input, 1 << 16);
+        boolean finished = false;
+        try {
+            String line;
+            while ((line = nextCommand()) != null) {
+                if (!line.startsWith("commit ")) {
+                    throw syntaxError("expected a commit");
+                }
+                importCommit(line.substring("commit ".length()));
+                if (commits % CHECKPOINT == 0) {
+                    flush();
+                }
+            }
+            flush();
+            finished = true;
+        } catch (IOException excp) {
+            throw error("fast-import: %s", excp.getMessage());
+        } finally {
+            if (!finished) {
+                abandon();
+            }
+        }
+    }
+
+    /** Reads the rest of a commit to BRANCH, and stores it. */
+    private void importCommit(String branch) throws IOException {
+        String mark = null;
+        Date date = null;
+        String from = null;
+        String merge = null;
+        String line = readLine();
+        if (line != null && line.startsWith("mark ")) {
+            mark = line.substring("mark ".length());
+            line = readLine();
+        }
+        if (line != null && line.startsWith("date ")) {
+            try {
+                date = new Date(Long.parseLong(line.substring("date ".length())) * 1000);
+            } catch (NumberFormatException excp) {
+                throw syntaxError("bad date");
+            }
+            line = readLine();
+        }
+        if (line != null && line.startsWith("from ")) {
+            from = resolve(line.substring("from ".length()));
+            line = readLine();
+        }
+        if (line != null && line.startsWith("merge ")) {
+            merge = resolve(line.substring("merge ".length()));
+            line = readLine();
+        }
+        String message = new String(readData(line), StandardCharsets.UTF_8);
+
+        /* Edit the branch's tree in place when it is the parent, as it usually is. */
+        Commit parent;
+        TreeMap<String, String> tree;
+        Commit tip = tips.get(branch);
+        String head = tip != null ? Commit.getSha1(tip) : branchHead.apply(branch);
+        if (from == null) {
+            from = head;
+        }
+        if (from == null) {
+            parent = null;
+            tree = new TreeMap<>();
+        } else if (tip != null && Commit.getSha1(tip).equals(from)) {
+            parent = tip;
+            tree = trees.get(branch);
+        } else {
+            parent = lookup(from);
+            tree = new TreeMap<>(parent.getMap());
+        }
+
+        while ((line = readLine()) != null && !line.isEmpty()) {
+            if (line.startsWith("M ")) {
+                String path = checkPath(line.substring(2));
+                tree.put(path, writeBlob(readData(readLine())));
+            } else if (line.startsWith("D ")) {
+                tree.remove(checkPath(line.substring(2)));
+            } else {
+                pending = line;
+                break;
+            }
+        }
+
+        Commit parent2 = merge == null ? null : lookup(merge);
+        Commit c = new Commit(message, date == null ? new Date() : date, parent, tree,
+            parent2);
+        unpublished.put(Commit.getSha1(c), c);
+        tips.put(branch, c);
+        trees.put(branch, tree);
+        if (mark != null) {
+            marks.put(mark, Commit.getSha1(c));
+        }
+        commits++;
+    }
+
+    /** Starts writing the blob CONTENTS unless it is known, and returns its ID. */
+    private String writeBlob(byte[] contents) {
+        String id = Utils.sha1(contents);
+        if (knownBlobs.add(id) && !hasBlob.test(id)) {
+            writes.add(writer.writeBlob(contents));
+            blobs++;
+            bytes += contents.length;
+        }
+        return id;
+    }
+
+    /** Waits for every blob write started, then stores the commits held back and
+     *  makes everything durable. */
+    private void flush() {
+        try {
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw excp;
+        }
+        writes.clear();
+        for (Commit c : unpublished.values()) {
+            saveCommit.accept(c, c.getParent().isEmpty() ? null : lookup(c.getParent()));
+        }
+        unpublished.clear();
+        checkpoint.run();
+    }
+
+    /** Waits for every blob write started to finish or fail, so that none is left
+     *  running when the writer is closed, and drops the commits held back. */
+    private void abandon() {
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]))
+            .handle((v, excp) -> null).join();
+        writes.clear();
+        unpublished.clear();
+    }
+
+    /** Returns the commit ID, held back or stored, or null if there is none. */
+    private Commit lookup(String id) {
+        Commit c = unpublished.get(id);
+        return c != null ? c : loadCommit.apply(id);
+    }
+
+    /** Returns the commit ID named by REF. */
+    private String resolve(String ref) {
+        String id;
+        if (ref.startsWith(":")) {
+            id = marks.get(ref);
+        } else if (tips.containsKey(ref)) {
+            id = Commit.getSha1(tips.get(ref));
+        } else if (branchHead.apply(ref) != null) {
+            id = branchHead.apply(ref);
+        } else {
+            id = lookup(ref) == null ? null : ref;
+        }
+        if (id == null) {
+            throw syntaxError("unknown commit " + ref);
+        }
+        return id;
+    }
+
+    /** Returns PATH if it names a file of the working directory. */
+    private String checkPath(String path) {
+        if (path.isEmpty() || path.contains("/") || path.equals(".")
+                || path.equals("..") || path.equals(".gitlet")) {
+            throw syntaxError("bad path " + path);
+        }
+        return path;
+    }
+
+    /** Reads the data announced by LINE, "data LENGTH", and the optional newline
+     *  after it. */
+    private byte[] readData(String line) throws IOException {
+        if (line == null || !line.startsWith("data ")) {
+            throw syntaxError("expected data");
+        }
+        int length;
+        try {
+            length = Integer.parseInt(line.substring("data ".length()));
+        } catch (NumberFormatException excp) {
+            throw syntaxError("bad data length");
+        }
+        byte[] result = in.readNBytes(length);
+        if (result.length != length) {
+            throw syntaxError("data ends early");
+        }
+        for (byte b : result) {
+            if (b == '\n') {
+                lineNumber++;
+            }
+        }
+        in.mark(1);
+        if (in.read() != '\n') {
+            in.reset();
+        } else {
+            lineNumber++;
+        }
+        return result;
+    }
+
+    /** Returns the next line that is not blank or a comment, or null at the end. */
+    private String nextCommand() throws IOException {
+        String line = readLine();
+        while (line != null && (line.isEmpty() || line.startsWith("#"))) {
+            line = readLine();
+        }
+        return line;
+    }
+
+    /** Returns the next line without its newline, or null at the end. */
+    private String readLine() throws IOException {
+        if (pending != null) {
+            String result = pending;
+            pending = null;
+            return result;
+        }
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b = in.read();
+        if (b < 0) {
+            return null;
+        }
+        while (b >= 0 && b != '\n') {
+            line.write(b);
+            b = in.read();
+        }
+        lineNumber++;
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private GitletException syntaxError(String problem) {
+        return error("fast-import: line %d: %s", lineNumber, problem);
+    }
+
+    /** Returns the newest commit imported into each branch, by name. */
+    Map<String, Commit> getTips() {
+        return tips;
+    }
+
+    long getCommits() {
+        return commits;
+    }
+
+    long getBlobs() {
+        return blobs;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+}
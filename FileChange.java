@@ -0,0 +1,126 @@
+package gitlet;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * One file that differs between two snapshots, as reported by diff: a commit, the
+ * staging area or the working directory.
+ */
+public class FileChange {
+    /** The ways a file can change. */
+    public enum Kind {
+        ADDED, DELETED, MODIFIED, RENAMED
+    }
+
+    /** How the file changed. */
+    private final Kind kind;
+
+    /** The name of the file before, or null if it was added. */
+    private final String oldName;
+
+    /** The name of the file after, or null if it was deleted. */
+    private final String newName;
+
+    /** The Blob ID before, or null if the file was added. */
+    private final String oldId;
+
+    /** The Blob ID after, or null if the file was deleted. */
+    private final String newId;
+
+    /** Reads the contents before, or null once they have been read. */
+    private Supplier<byte[]> oldSource;
+
+    /** Reads the contents after, or null once they have been read. */
+    private Supplier<byte[]> newSource;
+
+    /** The contents before, empty if the file was added, once read. */
+    private byte[] oldContents;
+
+    /** The contents after, empty if the file was deleted, once read. */
+    private byte[] newContents;
+
+    /** For a rename, the estimated percentage of lines the two versions share. */
+    private final int similarity;
+
+    /**
+     * Create a new FileChange object. Contents are read only when first asked for,
+     * since a change can often be reported, or paired as a rename, from its IDs.
+     * @param kind How the file changed
+     * @param oldName The name before, or null if added
+     * @param newName The name after, or null if deleted
+     * @param oldId The Blob ID before, or null if added
+     * @param newId The Blob ID after, or null if deleted
+     * @param oldSource Reads the contents before; unused if added
+     * @param newSource Reads the contents after; unused if deleted
+     * @param similarity For a rename, the percentage of shared lines
+     */
+    public FileChange(Kind kind, String oldName, String newName, String oldId, String newId,
+                      Supplier<byte[]> oldSource, Supplier<byte[]> newSource,
+                      int similarity) {
+        this.kind = kind;
+        this.oldName = oldName;
+        this.newName = newName;
+        this.oldId = oldId;
+        this.newId = newId;
+        this.oldSource = oldId == null ? null : oldSource;
+        this.newSource = newId == null ? null : newSource;
+        this.oldContents = oldId == null ? new byte[0] : null;
+        this.newContents = newId == null ? new byte[0] : null;
+        this.similarity = similarity;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getOldName() {
+        return oldName;
+    }
+
+    public String getNewName() {
+        return newName;
+    }
+
+    public String getOldId() {
+        return oldId;
+    }
+
+    public String getNewId() {
+        return newId;
+    }
+
+    /** Returns the contents before, reading them the first time. */
+    public byte[] getOldContents() {
+        if (oldContents == null) {
+            oldContents = oldSource.get();
+            oldSource = null;
+        }
+        return oldContents;
+    }
+
+    /** Returns the contents after, reading them the first time. */
+    public byte[] getNewContents() {
+        if (newContents == null) {
+            newContents = newSource.get();
+            newSource = null;
+        }
+        return newContents;
+    }
+
+    /** Returns whether the contents before and after are the same, as for a file
+     *  renamed unchanged or an empty file added, judged by Blob ID alone. */
+    public boolean sameContents() {
+        return Objects.equals(oldId == null ? Diff.EMPTY_ID : oldId,
+            newId == null ? Diff.EMPTY_ID : newId);
+    }
+
+    public int getSimilarity() {
+        return similarity;
+    }
+
+    /** Returns the name of the file after, or before if it was deleted. */
+    public String getName() {
+        return newName != null ? newName : oldName;
+    }
+}
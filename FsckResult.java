@@ -0,0 +1,55 @@
+package gitlet;
+
+import java.util.List;
+
+/**
+ * The outcome of checking a repository's objects and references with fsck.
+ */
+public class FsckResult {
+    /** The problems found, one line each, in order. */
+    private final List<String> problems;
+
+    /** The number of objects checked. */
+    private final long objects;
+
+    /** The number of bytes of objects read. */
+    private final long bytes;
+
+    /** The time the check took, in nanoseconds. */
+    private final long nanos;
+
+    /**
+     * Create a new FsckResult object.
+     * @param problems The problems found
+     * @param objects The number of objects checked
+     * @param bytes The number of bytes read
+     * @param nanos The time taken, in nanoseconds
+     */
+    public FsckResult(List<String> problems, long objects, long bytes, long nanos) {
+        this.problems = problems;
+        this.objects = objects;
+        this.bytes = bytes;
+        this.nanos = nanos;
+    }
+
+    public List<String> getProblems() {
+        return problems;
+    }
+
+    public long getObjects() {
+        return objects;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    /** Returns whether nothing was wrong. */
+    public boolean isClean() {
+        return problems.isEmpty();
+    }
+}
@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The patterns of a .gitletignore file, compiled once into a matcher.
+ *
+ * Each line is a glob: '*' matches within a name, '?' one character, '**' any number
+ * of directories, and [...] a character class. A pattern with no '/' matches a file
+ * or directory of that name anywhere; one containing a '/', or starting with one,
+ * matches from the working directory. A trailing '/' matches only directories, and a
+ * leading '!' re-includes what earlier patterns ignore. As in gitignore, the last
+ * pattern matching a path decides, so "!a.txt" followed by "*.txt" ignores a.txt.
+ * Blank lines and lines starting with '#' are skipped.
+ *
+ * Each run of consecutive patterns with or without '!' is compiled as a group. Plain
+ * names, the common case, are held in hash sets; the remaining globs of each kind are
+ * joined into one regular expression. Groups are tried from the last, so a check
+ * costs a hash lookup and a match per group, however many patterns each holds.
+ * Anything inside an ignored directory is ignored, so callers may skip such
+ * directories without listing them.
+ */
+class IgnoreRules {
+
+    /** The rules of a working directory without a .gitletignore file. */
+    static final IgnoreRules NONE = new IgnoreRules("");
+
+    /** A run of consecutive patterns that all ignore paths or all re-include them. */
+    private static class Group {
+        /** Whether the patterns re-include the paths they match. */
+        private final boolean negated;
+
+        /** Plain names matched as files or directories. */
+        private final Set<String> names = new HashSet<>();
+
+        /** Plain names matched only as directories. */
+        private final Set<String> dirNames = new HashSet<>();
+
+        /** The other globs matching files or directories, while they are collected. */
+        private final StringBuilder any = new StringBuilder();
+
+        /** The other globs matching only directories, while they are collected. */
+        private final StringBuilder dirs = new StringBuilder();
+
+        /** The other globs matching files or directories, or null if none. */
+        private Pattern pattern;
+
+        /** The other globs matching only directories, or null if none. */
+        private Pattern dirPattern;
+
+        Group(boolean negated) {
+            this.negated = negated;
+        }
+
+        /** Adds GLOB, which has no leading '!' or trailing '/', matching only
+         *  directories if DIRONLY. */
+        void add(String glob, boolean dirOnly) {
+            if (!glob.contains("/") && !hasWildcard(glob)) {
+                (dirOnly ? dirNames : names).add(glob);
+            } else {
+                StringBuilder target = dirOnly ? dirs : any;
+                if (target.length() > 0) {
+                    target.append('|');
+                }
+                target.append("(?:").append(toRegex(glob)).append(')');
+            }
+        }
+
+        /** Compiles the globs added. */
+        void compile() {
+            pattern = IgnoreRules.compile(any);
+            dirPattern = IgnoreRules.compile(dirs);
+        }
+
+        /** Returns whether a pattern of this group matches PATH, whose last name is
+         *  NAME, as a directory if ISDIRECTORY. */
+        boolean matches(String path, String name, boolean isDirectory) {
+            return names.contains(name)
+                || (isDirectory && dirNames.contains(name))
+                || (pattern != null && pattern.matcher(path).matches())
+                || (isDirectory && dirPattern != null && dirPattern.matcher(path).matches());
+        }
+    }
+
+    /** The groups of patterns, in the order they appear. */
+    private final List<Group> groups = new ArrayList<>();
+
+    /** Compiles the rules in TEXT, the contents of an ignore file. */
+    IgnoreRules(String text) {
+        Group group = null;
+        for (String line : text.split("\r?\n")) {
+            String glob = line.strip();
+            if (glob.isEmpty() || glob.startsWith("#")) {
+                continue;
+            }
+            boolean negated = glob.startsWith("!");
+            if (negated) {
+                glob = glob.substring(1);
+            }
+            boolean dirOnly = glob.endsWith("/");
+            if (dirOnly) {
+                glob = glob.substring(0, glob.length() - 1);
+            }
+            if (glob.isEmpty()) {
+                continue;
+            }
+            if (group == null || group.negated != negated) {
+                group = new Group(negated);
+                groups.add(group);
+            }
+            group.add(glob, dirOnly);
+        }
+        for (Group g : groups) {
+            g.compile();
+        }
+    }
+
+    /** Returns the rules of the .gitletignore file in the directory CWD. */
+    static IgnoreRules load(File cwd) {
+        File f = Utils.join(cwd, ".gitletignore");
+        if (!f.isFile()) {
+            return NONE;
+        }
+        return new IgnoreRules(Utils.readContentsAsString(f));
+    }
+
+    /** Returns whether the file, or directory if ISDIRECTORY, at PATH is ignored. PATH
+     *  is relative to the working directory and uses '/' between names. Paths in an
+     *  ignored directory are ignored too. */
+    boolean isIgnored(String path, boolean isDirectory) {
+        int slash = path.indexOf('/');
+        while (slash >= 0) {
+            if (matches(path.substring(0, slash), true)) {
+                return true;
+            }
+            slash = path.indexOf('/', slash + 1);
+        }
+        return matches(path, isDirectory);
+    }
+
+    /** Returns whether PATH itself, ignoring its directories, is ignored: whether the
+     *  last group matching it ignores rather than re-includes. */
+    private boolean matches(String path, boolean isDirectory) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        for (int i = groups.size() - 1; i >= 0; i--) {
+            Group g = groups.get(i);
+            if (g.matches(path, name, isDirectory)) {
+                return !g.negated;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasWildcard(String glob) {
+        return glob.indexOf('*') >= 0 || glob.indexOf('?') >= 0 || glob.indexOf('[') >= 0;
+    }
+
+    /** Returns a regular expression matching the paths that GLOB matches. */
+    private static String toRegex(String glob) {
+        StringBuilder result = new StringBuilder();
+        if (glob.startsWith("/")) {
+            glob = glob.substring(1);
+        } else if (!glob.contains("/")) {
+            result.append("(?:.*/)?");
+        }
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && glob.startsWith("**/", i)) {
+                result.append("(?:.*/)?");
+                i += 2;
+            } else if (c == '*' && glob.startsWith("**", i)) {
+                result.append(".*");
+                i++;
+            } else if (c == '*') {
+                result.append("[^/]*");
+            } else if (c == '?') {
+                result.append("[^/]");
+            } else if (c == '[' && glob.indexOf(']', i + 1) > i + 1) {
+                int end = glob.indexOf(']', i + 1);
+                String set = glob.substring(i + 1, end);
+                if (set.startsWith("!")) {
+                    set = "^" + set.substring(1);
+                }
+                result.append('[').append(set.replace("\\", "\\\\")).append(']');
+                i = end;
+            } else {
+                result.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return result.toString();
+    }
+
+    private static Pattern compile(CharSequence regex) {
+        return regex.length() == 0 ? null : Pattern.compile(regex.toString());
+    }
+}
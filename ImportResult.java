@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.util.Map;
+
+/**
+ * The outcome of importing a stream of commits with fast-import.
+ */
+public class ImportResult {
+    /** The number of commits imported. */
+    private final long commits;
+
+    /** The number of new blobs written. */
+    private final long blobs;
+
+    /** The number of bytes of new blob contents. */
+    private final long bytes;
+
+    /** The time the import took, in nanoseconds. */
+    private final long nanos;
+
+    /** The new head commit ID of each branch imported into, by name. */
+    private final Map<String, String> branches;
+
+    /**
+     * Create a new ImportResult object.
+     * @param commits The number of commits imported
+     * @param blobs The number of new blobs written
+     * @param bytes The number of bytes of new blob contents
+     * @param nanos The time taken, in nanoseconds
+     * @param branches The new head commit IDs, by branch name
+     */
+    public ImportResult(long commits, long blobs, long bytes, long nanos,
+                        Map<String, String> branches) {
+        this.commits = commits;
+        this.blobs = blobs;
+        this.bytes = bytes;
+        this.nanos = nanos;
+        this.branches = branches;
+    }
+
+    public long getCommits() {
+        return commits;
+    }
+
+    public long getBlobs() {
+        return blobs;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public Map<String, String> getBranches() {
+        return branches;
+    }
+}
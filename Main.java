@@ -1,66 +1,129 @@
 package gitlet;
 
 import java.io.File;
-import java.util.Date;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.text.SimpleDateFormat;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
+ *  Main parses the command line and prints results; the commands themselves
+ *  are implemented by Repository.
  */
 public class Main {
 
-    /** Current Working Directory. */
-    static final File CWD = new File(".");
-
-    /** Usage: java gitlet.Main ARGS, where ARGS contains
+    /** Usage: java gitlet.Main [--stats] ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ...
+     *  With --stats, or with the GITLET_STATS environment variable set, the
+     *  time spent in each storage and hashing operation is printed to standard
+     *  error when the command finishes.
      */
     public static void main(String[] args) {
+        boolean stats = System.getenv("GITLET_STATS") != null;
+        if (args.length > 0 && args[0].equals("--stats")) {
+            stats = true;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
         if (args.length == 0) {
-            exitWithError("Please enter a command.");
+            System.out.println("Please enter a command.");
+            return;
         }
+        Stats counters = new Stats();
+        Stats.CommandEvent event = new Stats.CommandEvent();
+        event.command = args[0];
+        event.begin();
+        try (Repository repo = new Repository(new File(System.getProperty("user.dir")))) {
+            String[] command = args;
+            counters.record(() -> dispatch(repo, command));
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            event.commit();
+            if (stats) {
+                counters.report(System.err);
+            }
+        }
+    }
+
+    /** Runs the command named by ARGS[0] on REPO. */
+    private static void dispatch(Repository repo, String[] args) {
         String firstArg = args[0];
         switch (firstArg) {
             case "init":
-                gitletInit(args);
+                gitletInit(repo, args);
                 break;
             case "add":
-                gitletAdd(args);
+                gitletAdd(repo, args);
                 break;
             case "commit":
-                gitletCommit(args, null);
+                gitletCommit(repo, args);
                 break;
             case "rm":
-                gitletRemove(args);
+                gitletRemove(repo, args);
                 break;
             case "log":
-                gitletLog(args);
+                gitletLog(repo, args);
                 break;
             case "global-log":
-                gitletGlobalLog(args);
+                gitletGlobalLog(repo, args);
                 break;
             case "find":
-                gitletFind(args);
+                gitletFind(repo, args);
                 break;
             case "status":
-                gitletStatus(args);
+                gitletStatus(repo, args);
                 break;
             case "checkout":
-                gitletCheckout(args);
+                gitletCheckout(repo, args);
                 break;
             case "branch":
-                gitletBranch(args);
+                gitletBranch(repo, args);
                 break;
             case "rm-branch":
-                gitletRemoveBranch(args);
+                gitletRemoveBranch(repo, args);
                 break;
             case "reset":
-                gitletReset(args);
+                gitletReset(repo, args);
                 break;
             case "merge":
-                gitletMerge(args);
+                gitletMerge(repo, args);
+                break;
+            case "diff":
+                gitletDiff(repo, args);
+                break;
+            case "gc":
+                gitletGc(repo, args);
+                break;
+            case "archive":
+                gitletArchive(repo, args);
+                break;
+            case "fast-import":
+                gitletFastImport(repo, args);
+                break;
+            case "fsck":
+                gitletFsck(repo, args);
+                break;
+            case "watch":
+                gitletWatch(repo, args);
+                break;
+            case "sparse-checkout":
+                gitletSparseCheckout(repo, args);
+                break;
+            case "add-remote":
+                gitletAddRemote(repo, args);
+                break;
+            case "rm-remote":
+                gitletRemoveRemote(repo, args);
+                break;
+            case "fetch":
+                gitletFetch(repo, args);
+                break;
+            case "push":
+                gitletPush(repo, args);
+                break;
+            case "pull":
+                gitletPull(repo, args);
                 break;
             default:
                 exitWithError("No command with that name exists.");
@@ -68,216 +131,102 @@ public class Main {
     }
 
     /** Initializes a Gitlet repository. */
-    public static void gitletInit(String[] args) {
+    public static void gitletInit(Repository repo, String[] args) {
         validateNumArgs(args, 1);
-        if (Repository.GITLET_DIR.exists()) {
-            exitWithError("A Gitlet version-control system already exists in the current "
-                    + "directory.");
-        }
-
-        Repository.GITLET_DIR.mkdir();
-        Repository.STAGING_ADDITION.mkdir();
-        Repository.STAGING_DELETION.mkdir();
-        Repository.BLOBS.mkdir();
-        Repository.COMMITS.mkdir();
-        Repository.BRANCHES.mkdir();
-        File head = new File(Repository.GITLET_DIR, "HEAD");
-        Utils.writeContents(head, "");
-
-        Commit initialCommit = new Commit("initial commit", new Date(0), null, null, null);
-        Branch initialBranch = new Branch(initialCommit, "main", true);
-        Repository.saveBranch(initialBranch);
-        Utils.writeObject(head, initialBranch);
-        Repository.saveCommit(initialCommit);
+        repo.init();
     }
 
-    public static void gitletAdd(String[] args) {
-        checkIfInitialized();
-        validateNumArgs(args, 2);
-        File f = Utils.join(CWD, args[1]);
-        if (!f.exists()) {
-            exitWithError("File does not exist.");
-        }
-
-        File fRemoval = Utils.join(Repository.STAGING_DELETION, args[1]);
-        if (fRemoval.exists()) {
-            fRemoval.delete();
-        }
-
-        File fAdd = Utils.join(Repository.STAGING_ADDITION, args[1]);
-        Commit c = Repository.getCurrentCommit();
-        if (c.getMap().containsKey(f.getName())) {
-            String s = c.getMap().get(f.getName());
-            if (Arrays.equals(Repository.loadBlob(s).getContents(), Utils.readContents(f))) {
-                fAdd.delete();
-                return;
-            }
+    /** Usage: add FILE..., where "." adds every file not ignored by .gitletignore. */
+    public static void gitletAdd(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        if (args.length < 2) {
+            exitWithError("Incorrect operands.");
         }
-
-        Utils.writeContents(fAdd, Utils.readContents(f));
+        repo.add(Arrays.copyOfRange(args, 1, args.length));
     }
 
-    public static void gitletCommit(String[] args, Commit parent2) {
-        checkIfInitialized();
+    public static void gitletCommit(Repository repo, String[] args) {
+        checkIfInitialized(repo);
         validateNumArgs(args, 2);
-
-        if (args[1].equals("")) {
-            exitWithError("Please enter a commit message.");
-        }
-
-        if (Utils.plainFilenamesIn(Repository.STAGING_ADDITION).isEmpty()
-                && Utils.plainFilenamesIn(Repository.STAGING_DELETION).isEmpty()) {
-            exitWithError("No changes added to the commit.");
-        }
-
-        Commit c = Repository.getCurrentCommit();
-        HashMap<String, Blob> blobs = new HashMap<String, Blob>();
-        ArrayList<String> fileNames = new ArrayList<String>();
-        for (String s : Utils.plainFilenamesIn(Repository.STAGING_ADDITION)) {
-            File f = Utils.join(Repository.STAGING_ADDITION, s);
-            Blob newBlob = new Blob(f);
-            blobs.put(s, newBlob);
-            fileNames.add(s);
-        }
-        for (String fileName : c.getMap().keySet()) {
-            String s = c.getMap().get(fileName);
-            Blob b = Repository.loadBlob(s);
-            if (!fileNames.contains(fileName)
-                    && !Utils.plainFilenamesIn(Repository.STAGING_DELETION).contains(fileName)) {
-                blobs.put(fileName, b);
-                fileNames.add(fileName);
-            }
-        }
-
-        Commit newCommit = new Commit(args[1], new Date(), c, blobs, parent2);
-        Repository.saveCommit(newCommit);
-        for (Blob b : blobs.values()) {
-            Repository.saveBlob(b);
-        }
-        for (String s : Utils.plainFilenamesIn(Repository.STAGING_ADDITION)) {
-            File f = Utils.join(Repository.STAGING_ADDITION, s);
-            f.delete();
-        }
-        for (String s : Utils.plainFilenamesIn(Repository.STAGING_DELETION)) {
-            File f = Utils.join(Repository.STAGING_DELETION, s);
-            f.delete();
-        }
+        repo.commit(args[1]);
     }
 
-    public static void gitletRemove(String[] args) {
-        checkIfInitialized();
+    public static void gitletRemove(Repository repo, String[] args) {
+        checkIfInitialized(repo);
         validateNumArgs(args, 2);
-        if (!Utils.plainFilenamesIn(Repository.STAGING_ADDITION).contains(args[1])) {
-            if (!Repository.getCurrentCommit().getMap().containsKey(args[1])) {
-                exitWithError("No reason to remove the file.");
-            }
-        }
-
-        File fRemoval = Utils.join(Repository.STAGING_ADDITION, args[1]);
-        if (fRemoval.exists()) {
-            fRemoval.delete();
-        }
+        repo.remove(args[1]);
+    }
 
-        File fAdd = Utils.join(Repository.STAGING_DELETION, args[1]);
-        Utils.writeContents(fAdd, "");
+    public static void gitletLog(Repository repo, String[] args) {
+        checkIfInitialized(repo);
 
-        File f = Utils.join(CWD, args[1]);
-        if (f.exists() && Repository.getCurrentCommit().getMap().containsKey(args[1])) {
-            f.delete();
+        if (args.length == 3 && args[1].equals("--")) {
+            repo.fileHistory(args[2]).forEach(Main::printCommit);
+            return;
         }
+        validateNumArgs(args, 1);
+        repo.log().forEach(Main::printCommit);
     }
 
-    public static void gitletLog(String[] args) {
-        checkIfInitialized();
+    public static void gitletGlobalLog(Repository repo, String[] args) {
+        checkIfInitialized(repo);
 
         validateNumArgs(args, 1);
-        Commit c = Repository.getCurrentCommit();
-        while (true) {
-            System.out.println("===");
-            System.out.println("commit " + Utils.sha1(c.toString()));
-            if (c.getIsMerge()) {
-                System.out.println("Merge: " + c.getParent().substring(0, 7)
-                        + " " + c.getParent2().substring(0, 7));
-            }
-            SimpleDateFormat d = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
-            System.out.println("Date: " + d.format(c.getTime()));
-            System.out.println(c.getMessage());
-            System.out.println();
-
-            if (c.getParent().equals("")) {
-                break;
-            }
-            c = Repository.loadCommit(c.getParent());
-        }
+        repo.globalLog().forEach(Main::printCommit);
     }
 
-    public static void gitletGlobalLog(String[] args) {
-        checkIfInitialized();
-
-        validateNumArgs(args, 1);
-        for (String s : Utils.plainFilenamesIn(Repository.COMMITS)) {
-            Commit c = Repository.loadCommit(s);
-            System.out.println("===");
-            System.out.println("commit " + Utils.sha1(c.toString()));
-            if (c.getIsMerge()) {
-                System.out.println("Merge: " + c.getParent().substring(0, 7)
-                        + " " + c.getParent2().substring(0, 7));
-            }
-            SimpleDateFormat d = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
-            System.out.println("Date: " + d.format(c.getTime()));
-            System.out.println(c.getMessage());
-            System.out.println();
-        }
+    /** Prints the log entry for Commit C. */
+    private static void printCommit(Commit c) {
+        System.out.println("===");
+        System.out.println("commit " + Commit.getSha1(c));
+        if (c.getIsMerge()) {
+            System.out.println("Merge: " + c.getParent().substring(0, 7)
+                    + " " + c.getParent2().substring(0, 7));
+        }
+        SimpleDateFormat d = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
+        System.out.println("Date: " + d.format(c.getTime()));
+        System.out.println(c.getMessage());
+        System.out.println();
     }
 
-    public static void gitletFind(String[] args) {
-        checkIfInitialized();
+    public static void gitletFind(Repository repo, String[] args) {
+        checkIfInitialized(repo);
 
         validateNumArgs(args, 2);
-        String toFind = args[1];
-        int counter = 0;
-        for (String s : Utils.plainFilenamesIn(Repository.COMMITS)) {
-            Commit c = Repository.loadCommit(s);
-            if (c.getMessage().equals(toFind)) {
-                System.out.println(Commit.getSha1(c));
-                counter++;
-            }
+        List<String> found = repo.find(args[1]);
+        for (String id : found) {
+            System.out.println(id);
         }
-        if (counter == 0) {
+        if (found.isEmpty()) {
             exitWithError("Found no commit with that message.");
         }
     }
 
-    public static void gitletStatus(String[] args) {
-        checkIfInitialized();
+    public static void gitletStatus(Repository repo, String[] args) {
+        checkIfInitialized(repo);
 
         validateNumArgs(args, 1);
 
-        File head = Utils.join(Repository.GITLET_DIR, "HEAD");
-        Branch headBranch = Utils.readObject(head, Branch.class);
+        Status status = repo.status();
         System.out.println("=== Branches ===");
-        for (String s : Utils.plainFilenamesIn(Repository.BRANCHES)) {
-            Branch b = Repository.loadBranch(s);
-            if (b.getName().equals(headBranch.getName())) {
-                System.out.println("*" + b.getName());
+        for (String s : status.getBranches()) {
+            if (s.equals(status.getCurrentBranch())) {
+                System.out.println("*" + s);
             } else {
-                System.out.println(b.getName());
+                System.out.println(s);
             }
         }
         System.out.println();
 
         System.out.println("=== Staged Files ===");
-        for (String s : Utils.plainFilenamesIn(Repository.STAGING_ADDITION)) {
+        for (String s : status.getStaged()) {
             System.out.println(s);
         }
         System.out.println();
 
-        Commit headCommit = headBranch.getCommit();
         System.out.println("=== Removed Files ===");
-        for (String s : Utils.plainFilenamesIn(Repository.STAGING_DELETION)) {
-            if (headCommit.getMap().containsKey(s)) {
-                System.out.println(s);
-            }
+        for (String s : status.getRemoved()) {
+            System.out.println(s);
         }
         System.out.println();
 
@@ -288,321 +237,244 @@ public class Main {
         System.out.println();
     }
 
-    public static void gitletCheckout(String[] args) {
-        checkIfInitialized();
+    public static void gitletCheckout(Repository repo, String[] args) {
+        checkIfInitialized(repo);
 
         if (args.length == 3 && args[1].equals("--")) {
-            Commit c = Repository.getCurrentCommit();
-            String fileName = args[2];
-            if (!c.getMap().containsKey(fileName)) {
-                exitWithError("File does not exist in that commit.");
-            }
-            Blob b = Repository.loadBlob(c.getMap().get(fileName));
-            File f = Utils.join(CWD, fileName);
-            Utils.writeContents(f, b.getContents());
+            repo.checkoutFile(args[2]);
             return;
         }
 
         if (args.length == 4 && args[2].equals("--")) {
-            String s = args[1];
-            boolean flag = false;
-            for (String id : Utils.plainFilenamesIn(Repository.COMMITS)) {
-                if (id.startsWith(s)) {
-                    s = id;
-                    flag = true;
-                    break;
-                }
-            }
-            if (!flag) {
-                exitWithError("No commit with that id exists.");
-            }
-
-            Commit c = Repository.loadCommit(s);
-            String fileName = args[3];
-            if (!c.getMap().containsKey(fileName)) {
-                exitWithError("File does not exist in that commit.");
-            }
-            Blob b = Repository.loadBlob(c.getMap().get(fileName));
-            File f = Utils.join(CWD, fileName);
-            Utils.writeContents(f, b.getContents());
+            repo.checkoutFile(args[1], args[3]);
             return;
         }
 
         if (args.length == 2) {
-            gitletCheckoutCase3(args);
+            repo.checkoutBranch(args[1]);
             return;
         }
 
         exitWithError("Incorrect operands.");
     }
 
-    private static void gitletCheckoutCase3(String[] args) {
-        File f = Utils.join(Repository.BRANCHES, args[1]);
-        if (!f.exists()) {
-            exitWithError("No such branch exists.");
-        }
+    public static void gitletBranch(Repository repo, String[] args) {
+        checkIfInitialized(repo);
 
-        File h = Utils.join(Repository.GITLET_DIR, "HEAD");
-        Branch b = Utils.readObject(h, Branch.class);
-        if (b.getName().equals(args[1])) {
-            exitWithError("No need to checkout the current branch.");
-        }
+        validateNumArgs(args, 2);
+        repo.branch(args[1]);
+    }
 
-        Commit currentCommit = b.getCommit();
-        Branch checkoutBranch = Repository.loadBranch(args[1]);
-        Commit checkoutCommit = checkoutBranch.getCommit();
-        for (String s : Utils.plainFilenamesIn(CWD)) {
-            File file2 = Utils.join(Repository.STAGING_ADDITION, s);
-            boolean tracked1 = file2.exists();
-            boolean tracked2 = currentCommit.getMap().keySet().contains(s);
-            boolean tracked = tracked1 || tracked2;
-            if (!tracked) {
-                exitWithError("There is an untracked file in the way; delete it, "
-                        + "or add and commit it first.");
-            }
-        }
-        for (String s : Utils.plainFilenamesIn(CWD)) {
-            File file = Utils.join(CWD, s);
-            File file2 = Utils.join(Repository.STAGING_ADDITION, s);
-            boolean tracked1 = file2.exists();
-            boolean tracked2 = currentCommit.getMap().keySet().contains(s);
-            boolean tracked = tracked1 || tracked2;
-            if (tracked) {
-                file.delete();
-            }
-        }
+    public static void gitletRemoveBranch(Repository repo, String[] args) {
+        checkIfInitialized(repo);
 
-        Utils.writeObject(h, checkoutBranch);
-        Branch currentBranchChanged = new Branch(currentCommit,
-                b.getName(), false);
-        Branch checkoutBranchChanged = new Branch(checkoutCommit,
-                checkoutBranch.getName(), true);
-        Repository.saveBranch(currentBranchChanged);
-        Repository.saveBranch(checkoutBranchChanged);
-        for (String s : checkoutCommit.getMap().keySet()) {
-            gitletCheckout(new String[]{"checkout", Commit.getSha1(checkoutCommit), "--", s});
-        }
+        validateNumArgs(args, 2);
+        repo.removeBranch(args[1]);
+    }
 
-        for (String s : Utils.plainFilenamesIn(Repository.STAGING_ADDITION)) {
-            File fRemove = Utils.join(Repository.STAGING_ADDITION, s);
-            fRemove.delete();
+    public static void gitletReset(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        validateNumArgs(args, 2);
+        repo.reset(args[1]);
+    }
+
+    public static void gitletMerge(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        validateNumArgs(args, 2);
+        printMergeResult(repo.merge(args[1]));
+    }
+
+    /** Prints how a merge of a branch into the current branch turned out. */
+    private static void printMergeResult(MergeResult result) {
+        if (result.isFastForward()) {
+            System.out.println("Current branch fast-forwarded.");
         }
-        for (String s : Utils.plainFilenamesIn(Repository.STAGING_DELETION)) {
-            File fRemove = Utils.join(Repository.STAGING_DELETION, s);
-            fRemove.delete();
+        if (result.hasConflicts()) {
+            System.out.println("Encountered a merge conflict.");
         }
     }
 
-    public static void gitletBranch(String[] args) {
-        checkIfInitialized();
+    public static void gitletGc(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        validateNumArgs(args, 1);
+        repo.gc();
+    }
 
-        validateNumArgs(args, 2);
-        File f = Utils.join(Repository.BRANCHES, args[1]);
-        if (f.exists()) {
-            exitWithError("A branch with that name already exists.");
+    /** Usage: archive --older-than DAYS. Moves the commits made more than DAYS days
+     *  ago that no branch points at, and the files only they need, into a compressed
+     *  archive, and prints how much was moved. */
+    public static void gitletArchive(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        validateNumArgs(args, 3);
+        if (!args[1].equals("--older-than") || !args[2].matches("[0-9]{1,6}")) {
+            exitWithError("Incorrect operands.");
         }
+        long days = Long.parseLong(args[2]);
+        ArchiveResult result = repo.archive(
+            new Date(System.currentTimeMillis() - days * 24 * 60 * 60 * 1000));
+        if (result.getName() == null) {
+            System.out.println("Nothing to archive.");
+            return;
+        }
+        System.out.printf("Archived %d commits, %d blobs and %d chunks into %s: "
+            + "%.1f MB of loose files in %.1f MB, in %.2f s.%n",
+            result.getCommits(), result.getBlobs(), result.getChunks(), result.getName(),
+            result.getLooseBytes() / (1024.0 * 1024.0),
+            result.getArchiveBytes() / (1024.0 * 1024.0), result.getNanos() / 1e9);
+    }
 
-        Branch b = new Branch(Repository.getCurrentCommit(), args[1], false);
-        Repository.saveBranch(b);
+    /** Usage: fast-import. Imports a stream of commits from standard input, in the
+     *  format described in FastImport, and moves the branches it names. */
+    public static void gitletFastImport(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        validateNumArgs(args, 1);
+        ImportResult result = repo.fastImport(System.in);
+        for (Map.Entry<String, String> e : result.getBranches().entrySet()) {
+            System.out.println(e.getValue() + " " + e.getKey());
+        }
+        System.out.printf("Imported %d commits and %d new blobs (%.1f MB) in %.2f s.%n",
+            result.getCommits(), result.getBlobs(), result.getBytes() / (1024.0 * 1024.0),
+            result.getNanos() / 1e9);
     }
 
-    public static void gitletRemoveBranch(String[] args) {
-        checkIfInitialized();
+    /** Usage: fsck. Prints each problem found with the repository's objects and
+     *  references, then how much was checked and how fast. */
+    public static void gitletFsck(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        validateNumArgs(args, 1);
+        FsckResult result = repo.fsck();
+        for (String p : result.getProblems()) {
+            System.out.println(p);
+        }
+        double seconds = result.getNanos() / 1e9;
+        double megabytes = result.getBytes() / (1024.0 * 1024.0);
+        System.out.printf("Checked %d objects, %.1f MB in %.2f s (%.1f MB/s); %s.%n",
+            result.getObjects(), megabytes, seconds, megabytes / Math.max(seconds, 1e-9),
+            result.isClean() ? "no problems" : result.getProblems().size() + " problems");
+    }
 
-        validateNumArgs(args, 2);
-        File f = Utils.join(Repository.BRANCHES, args[1]);
-        if (!f.exists()) {
-            exitWithError("A branch with that name does not exist.");
-        }
+    /** Usage: watch. Runs until killed, journaling changes to the working directory
+     *  so that other commands need not rescan all of it. */
+    public static void gitletWatch(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        validateNumArgs(args, 1);
+        repo.watch();
+    }
 
-        File h = Utils.join(Repository.GITLET_DIR, "HEAD");
-        Branch b = Utils.readObject(h, Branch.class);
-        if (b.getName().equals(args[1])) {
-            exitWithError("Cannot remove the current branch.");
+    /** Usage: sparse-checkout [PATTERN... | --disable]. Checks out only the files
+     *  matched by the PATTERNS, or every file again with --disable; with no operands,
+     *  prints the current patterns. */
+    public static void gitletSparseCheckout(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        if (args.length == 1) {
+            for (String p : repo.sparseCheckoutPatterns()) {
+                System.out.println(p);
+            }
+        } else if (args.length == 2 && args[1].equals("--disable")) {
+            repo.setSparseCheckout(List.of());
+        } else {
+            repo.setSparseCheckout(Arrays.asList(args).subList(1, args.length));
         }
+    }
 
-        f.delete();
+    public static void gitletAddRemote(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        validateNumArgs(args, 3);
+        repo.addRemote(args[1], args[2]);
     }
 
-    public static void gitletReset(String[] args) {
-        checkIfInitialized();
+    public static void gitletRemoveRemote(Repository repo, String[] args) {
+        checkIfInitialized(repo);
         validateNumArgs(args, 2);
+        repo.removeRemote(args[1]);
+    }
 
-        String commitName = args[1];
-        boolean flag = false;
-        for (String id : Utils.plainFilenamesIn(Repository.COMMITS)) {
-            if (id.startsWith(commitName)) {
-                commitName = id;
-                flag = true;
-                break;
-            }
-        }
-        if (!flag) {
-            exitWithError("No commit with that id exists.");
-        }
+    public static void gitletFetch(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        validateNumArgs(args, 3);
+        repo.fetch(args[1], args[2]);
+    }
 
-        File h = Utils.join(Repository.GITLET_DIR, "HEAD");
-        Branch b = Utils.readObject(h, Branch.class);
-        Commit currentCommit = b.getCommit();
-        Commit checkoutCommit = Repository.loadCommit(commitName);
-        for (String s : Utils.plainFilenamesIn(CWD)) {
-            File file2 = Utils.join(Repository.STAGING_ADDITION, s);
-            boolean tracked1 = file2.exists();
-            boolean tracked2 = currentCommit.getMap().keySet().contains(s);
-            boolean tracked = tracked1 || tracked2;
-            if (!tracked) {
-                exitWithError("There is an untracked file in the way; delete it, "
-                        + "or add and commit it first.");
-            }
-        }
-        for (String s : Utils.plainFilenamesIn(CWD)) {
-            File file = Utils.join(CWD, s);
-            File file2 = Utils.join(Repository.STAGING_ADDITION, s);
-            boolean tracked1 = file2.exists();
-            boolean tracked2 = currentCommit.getMap().keySet().contains(s);
-            boolean tracked = tracked1 || tracked2;
-            if (tracked) {
-                file.delete();
-            }
-        }
+    public static void gitletPush(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        validateNumArgs(args, 3);
+        repo.push(args[1], args[2]);
+    }
 
-        Branch changedBranch = new Branch(checkoutCommit, b.getName(), true);
-        Utils.writeObject(h, changedBranch);
-        Repository.saveBranch(changedBranch);
-        for (String s : checkoutCommit.getMap().keySet()) {
-            gitletCheckout(new String[]{"checkout", Commit.getSha1(checkoutCommit), "--", s});
-        }
+    public static void gitletPull(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+        validateNumArgs(args, 3);
+        printMergeResult(repo.pull(args[1], args[2]));
+    }
 
-        for (String s : Utils.plainFilenamesIn(Repository.STAGING_ADDITION)) {
-            File fRemove = Utils.join(Repository.STAGING_ADDITION, s);
-            fRemove.delete();
-        }
-        for (String s : Utils.plainFilenamesIn(Repository.STAGING_DELETION)) {
-            File fRemove = Utils.join(Repository.STAGING_DELETION, s);
-            fRemove.delete();
-        }
-        return;
-    }
-
-    public static void gitletMerge(String[] args) {
-        mergeCheckErrors(args);
-        File h = Utils.join(Repository.GITLET_DIR, "HEAD");
-        Branch b = Utils.readObject(h, Branch.class);
-        Commit head = b.getCommit();
-        Commit other = Repository.loadBranch(args[1]).getCommit();
-        Commit split = Repository.latestAncestor(head, other);
-        if (Commit.getSha1(head).equals(Commit.getSha1(split))) {
-            gitletCheckout(new String[]{"checkout", Repository.loadBranch(args[1]).getName()});
-            System.out.println("Current branch fast-forwarded.");
+    /** Usage: diff [--cached | REV [REV]]. Compares the staging area with the working
+     *  directory, the current commit with the staging area (--cached), a commit with
+     *  the working directory, or two commits, where each REV is a branch or commit ID.
+     */
+    public static void gitletDiff(Repository repo, String[] args) {
+        checkIfInitialized(repo);
+
+        List<FileChange> changes;
+        if (args.length == 1) {
+            changes = repo.diff();
+        } else if (args.length == 2 && args[1].equals("--cached")) {
+            changes = repo.diffStaged();
+        } else if (args.length == 2) {
+            changes = repo.diff(args[1]);
+        } else if (args.length == 3) {
+            changes = repo.diff(args[1], args[2]);
+        } else {
+            exitWithError("Incorrect operands.");
             return;
         }
-        boolean conflict = false;
-        for (String s : split.getMap().keySet()) {
-            Blob splitBlob = Repository.loadBlob(split.getMap().get(s));
-            Blob headBlob = null;
-            if (head.getMap().containsKey(s)) {
-                headBlob = Repository.loadBlob(head.getMap().get(s));
-            }
-            Blob otherBlob = null;
-            if (other.getMap().containsKey(s)) {
-                otherBlob = Repository.loadBlob(other.getMap().get(s));
-            }
-            if (Blob.getSha1(splitBlob).equals(Blob.getSha1(headBlob))) {
-                if (!Blob.getSha1(splitBlob).equals(Blob.getSha1(otherBlob))) {
-                    if (otherBlob == null) {
-                        gitletRemove(new String[]{"remove", s});
-                    } else {
-                        gitletCheckout(new String[]{"checkout", Commit.getSha1(other), "--", s});
-                        gitletAdd(new String[]{"add", s});
-                    }
-                    continue;
-                }
-            }
-            if (!Blob.getSha1(splitBlob).equals(Blob.getSha1(headBlob))) {
-                if (!Blob.getSha1(splitBlob).equals(Blob.getSha1(otherBlob))) {
-                    if (!Blob.getSha1(headBlob).equals(Blob.getSha1(otherBlob))) {
-                        String currContents;
-                        if (headBlob != null) {
-                            currContents = new String(headBlob.getContents());
-                        } else {
-                            currContents = "";
-                        }
-                        String otherContents;
-                        if (otherBlob != null) {
-                            otherContents = new String(otherBlob.getContents());
-                        } else {
-                            otherContents = "";
-                        }
-                        File mergeConflict = Utils.join(CWD, s);
-                        Utils.writeContents(mergeConflict, "<<<<<<< HEAD\n" + currContents
-                                + "=======\n" + otherContents + ">>>>>>>" + "\n");
-                        gitletAdd(new String[]{"add", s});
-                        conflict = true;
-                    }
-                }
-            }
-        }
-        for (String s : other.getMap().keySet()) {
-            Blob otherBlob = Repository.loadBlob(other.getMap().get(s));
-            Blob splitBlob = null;
-            if (split.getMap().containsKey(s)) {
-                splitBlob = Repository.loadBlob(split.getMap().get(s));
-            }
-            Blob headBlob = null;
-            if (head.getMap().containsKey(s)) {
-                headBlob = Repository.loadBlob(head.getMap().get(s));
-            }
-            if (headBlob == null && splitBlob == null) {
-                File newFile = Utils.join(CWD, s);
-                Utils.writeContents(newFile, otherBlob.getContents());
-                gitletAdd(new String[]{"add", s});
-            }
-        }
-        gitletCommit(new String[]{"commit", "Merged " + args[1] + " into " + b.getName() + "."},
-                other);
-        if (conflict) {
-            System.out.println("Encountered a merge conflict.");
+        for (FileChange c : changes) {
+            printFileChange(c);
         }
     }
 
-    public static void mergeCheckErrors(String[] args) {
-        checkIfInitialized();
-        validateNumArgs(args, 2);
-        File h = Utils.join(Repository.GITLET_DIR, "HEAD");
-        Branch b = Utils.readObject(h, Branch.class);
-        Commit currentCommit = b.getCommit();
-        for (String s : Utils.plainFilenamesIn(CWD)) {
-            File file2 = Utils.join(Repository.STAGING_ADDITION, s);
-            boolean tracked1 = file2.exists();
-            boolean tracked2 = currentCommit.getMap().keySet().contains(s);
-            boolean tracked = tracked1 || tracked2;
-            if (!tracked) {
-                exitWithError("There is an untracked file in the way; delete it, "
-                        + "or add and commit it first.");
-            }
-        }
-        if (!Utils.plainFilenamesIn(Repository.STAGING_ADDITION).isEmpty()
-                || !Utils.plainFilenamesIn(Repository.STAGING_DELETION).isEmpty()) {
-            exitWithError("You have uncommitted changes.");
-        }
-        File f = Utils.join(Repository.BRANCHES, args[1]);
-        if (!f.exists()) {
-            exitWithError("A branch with that name does not exist.");
-        }
-        if (b.getName().equals(args[1])) {
-            exitWithError("Cannot merge a branch with itself.");
+    /** Prints FileChange C as a unified diff. */
+    private static void printFileChange(FileChange c) {
+        String oldName = c.getOldName() == null ? c.getNewName() : c.getOldName();
+        StringBuilder out = new StringBuilder();
+        out.append("diff --git a/").append(oldName).append(" b/").append(c.getName())
+                .append('\n');
+        switch (c.getKind()) {
+            case ADDED:
+                out.append("new file\n");
+                break;
+            case DELETED:
+                out.append("deleted file\n");
+                break;
+            case RENAMED:
+                out.append("similarity index ").append(c.getSimilarity()).append("%\n")
+                        .append("rename from ").append(c.getOldName()).append('\n')
+                        .append("rename to ").append(c.getNewName()).append('\n');
+                break;
+            default:
+                break;
         }
-        Commit head = b.getCommit();
-        Commit other = Repository.loadBranch(args[1]).getCommit();
-        Commit split = Repository.latestAncestor(head, other);
-        if (Commit.getSha1(other).equals(Commit.getSha1(split))) {
-            exitWithError("Given branch is an ancestor of the current branch.");
+        String from = c.getOldName() == null ? "/dev/null" : "a/" + c.getOldName();
+        String to = c.getNewName() == null ? "/dev/null" : "b/" + c.getNewName();
+        /* A change with the same contents on both sides has no body, so nothing
+         * need be read for it. */
+        if (!c.sameContents()) {
+            if (Diff.isBinary(c.getOldContents()) || Diff.isBinary(c.getNewContents())) {
+                out.append("Binary files ").append(from).append(" and ").append(to)
+                        .append(" differ\n");
+            } else {
+                out.append("--- ").append(from).append('\n');
+                out.append("+++ ").append(to).append('\n');
+                Diff.unified(Diff.lines(c.getOldContents()), Diff.lines(c.getNewContents()),
+                        out);
+            }
         }
+        System.out.print(out);
     }
 
+    /** Abandons the command with MESSAGE, which main prints once the command's
+     *  statistics are complete. */
     public static void exitWithError(String message) {
-        System.out.println(message);
-        System.exit(0);
+        throw new GitletException(message);
     }
 
     public static void validateNumArgs(String[] args, int n) {
@@ -611,8 +483,8 @@ public class Main {
         }
     }
 
-    public static void checkIfInitialized() {
-        if (!Repository.GITLET_DIR.exists()) {
+    public static void checkIfInitialized(Repository repo) {
+        if (!repo.isInitialized()) {
             exitWithError("Not in an initialized Gitlet directory.");
         }
     }
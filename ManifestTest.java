@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A check that a chunk manifest larger than ChunkedBlob.THRESHOLD, as a file of a few
+ * gigabytes has, is still read as a manifest and not as a plain Blob. Such a file
+ * would take too long to write here, so the test stores enough tiny chunks by hand
+ * that their manifest passes the threshold, and commits a file made of them. It then
+ * checks that reset restores the file, that fsck finds nothing wrong, and that a
+ * fetch into a second repository sends every chunk.
+ *
+ * Usage: java gitlet.ManifestTest
+ * Exits with status 1 if a check fails.
+ */
+class ManifestTest {
+
+    /** The length of a manifest's header: magic number, file length and chunk count. */
+    private static final int MANIFEST_HEADER = 4 + 8 + 4;
+
+    /** The length of each chunk's entry in a manifest: its ID and its length. */
+    private static final int MANIFEST_ENTRY = Sha1.LENGTH + 4;
+
+    /** The first four bytes of a manifest: "GLCM". */
+    private static final int MANIFEST_MAGIC = 0x474c434d;
+
+    /** The problems found. */
+    private final List<String> problems = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        File dir = Files.createTempDirectory("gitlet-manifest").toFile();
+        ManifestTest t = new ManifestTest();
+        try {
+            t.run(dir);
+        } finally {
+            deleteRecursively(dir);
+        }
+        if (!t.problems.isEmpty()) {
+            for (String p : t.problems) {
+                System.out.println(p);
+            }
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+    }
+
+    private void run(File dir) throws IOException {
+        File root = new File(dir, "origin");
+        root.mkdir();
+        Repository repo = new Repository(root, "off");
+        repo.init();
+
+        int count = (int) (ChunkedBlob.THRESHOLD / MANIFEST_ENTRY) + 1000;
+        File chunks = Utils.join(root, ".gitlet", "chunks");
+        chunks.mkdirs();
+        MessageDigest whole;
+        try {
+            whole = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(entries);
+        long length = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] chunk = ("chunk " + i + "\n").getBytes(StandardCharsets.UTF_8);
+            String chunkId = Utils.sha1(chunk);
+            Utils.writeContents(Utils.join(chunks, chunkId), chunk);
+            whole.update(chunk);
+            out.write(Sha1.fromHex(chunkId));
+            out.writeInt(chunk.length);
+            length += chunk.length;
+        }
+        out.close();
+
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(manifest);
+        header.writeInt(MANIFEST_MAGIC);
+        header.writeLong(length);
+        header.writeInt(count);
+        header.write(entries.toByteArray());
+        header.close();
+        byte[] bytes = manifest.toByteArray();
+        if (bytes.length != MANIFEST_HEADER + count * MANIFEST_ENTRY
+                || bytes.length < ChunkedBlob.THRESHOLD) {
+            problems.add("the manifest built is " + bytes.length + " bytes");
+            return;
+        }
+        String blobId = Sha1.toHex(whole.digest());
+        if (!ChunkedBlob.parse(blobId, bytes).getChunkIds().equals(readChunkIds(bytes))) {
+            problems.add("the manifest built does not parse");
+            return;
+        }
+        Utils.writeContents(Utils.join(root, ".gitlet", "blobs", blobId), bytes);
+
+        Map<String, String> files = new HashMap<>();
+        files.put("big.txt", blobId);
+        Commit c = new Commit("big file", new Date(0), repo.getCurrentCommit(), files, null);
+        repo.saveCommit(c);
+
+        repo.reset(Commit.getSha1(c));
+        File big = new File(root, "big.txt");
+        if (!big.isFile() || big.length() != length
+                || !Utils.sha1(Utils.readContents(big)).equals(blobId)) {
+            problems.add("reset did not restore big.txt");
+        }
+        for (String p : repo.fsck().getProblems()) {
+            problems.add("origin: " + p);
+        }
+
+        File copy = new File(dir, "copy");
+        copy.mkdir();
+        Repository clone = new Repository(copy, "off");
+        clone.init();
+        clone.addRemote("origin", root.getPath());
+        clone.fetch("origin", "main");
+        if (!clone.branchExists("origin/main")) {
+            problems.add("fetch did not create origin/main");
+        }
+        for (String p : clone.fsck().getProblems()) {
+            problems.add("copy: " + p);
+        }
+        repo.close();
+        clone.close();
+    }
+
+    /** Returns the chunk IDs listed in the manifest BYTES, read independently of
+     *  ChunkedBlob. */
+    private static List<String> readChunkIds(byte[] bytes) {
+        List<String> result = new ArrayList<>();
+        byte[] raw = new byte[Sha1.LENGTH];
+        for (int p = MANIFEST_HEADER; p < bytes.length; p += MANIFEST_ENTRY) {
+            System.arraycopy(bytes, p, raw, 0, raw.length);
+            result.add(Sha1.toHex(raw));
+        }
+        return result;
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteRecursively(c);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,46 @@
+package gitlet;
+
+import java.util.List;
+
+/**
+ * The outcome of merging a branch into the current branch.
+ */
+public class MergeResult {
+    /** Whether the current branch was simply fast-forwarded. */
+    private final boolean fastForward;
+
+    /** The merge commit, or null after a fast-forward. */
+    private final Commit commit;
+
+    /** The names of files left with conflict markers. */
+    private final List<String> conflicts;
+
+    /**
+     * Create a new MergeResult object.
+     * @param fastForward Whether the current branch was fast-forwarded
+     * @param commit The merge commit, or null after a fast-forward
+     * @param conflicts The names of conflicted files
+     */
+    public MergeResult(boolean fastForward, Commit commit, List<String> conflicts) {
+        this.fastForward = fastForward;
+        this.commit = commit;
+        this.conflicts = conflicts;
+    }
+
+    public boolean isFastForward() {
+        return fastForward;
+    }
+
+    public Commit getCommit() {
+        return commit;
+    }
+
+    public List<String> getConflicts() {
+        return conflicts;
+    }
+
+    /** Returns whether any file was left with conflict markers. */
+    public boolean hasConflicts() {
+        return !conflicts.isEmpty();
+    }
+}
@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Turns files into stored Blobs through a two-stage pipeline, so that a large commit
+ * keeps every core and the disk busy at once. The first stage reads a file, hashes
+ * it and serializes its Blob; the second writes the result. Each stage has its own
+ * threads and a bounded queue. When a queue is full the submitting thread runs the
+ * task itself, which throttles the stage before it instead of buffering without
+ * limit.
+ *
+ * Usage:
+ *   try (ObjectWriter w = new ObjectWriter(store, storeChunk)) {
+ *       CompletableFuture<String> id = w.writeBlob(file);
+ *       ...
+ *   }
+ */
+class ObjectWriter implements AutoCloseable {
+
+    /** Threads reading, hashing and serializing. */
+    private static final int HASH_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Threads writing objects. */
+    private static final int WRITE_THREADS = 4;
+
+    /** Tasks each stage may hold waiting, beyond those running. */
+    private static final int QUEUE_DEPTH = 16;
+
+    /** The first stage. */
+    private final ThreadPoolExecutor hashers = stage(HASH_THREADS);
+
+    /** The second stage. */
+    private final ThreadPoolExecutor writers = stage(WRITE_THREADS);
+
+    /** Stores a Blob or chunk manifest, given its ID and bytes. */
+    private final BiConsumer<String, byte[]> store;
+
+    /** Stores a chunk of a large file, given its ID and bytes. */
+    private final BiConsumer<String, ByteBuffer> storeChunk;
+
+    /** A Blob between the two stages. */
+    private static class Serialized {
+        private final String id;
+        private final byte[] bytes;
+
+        Serialized(Blob b) {
+            id = Blob.getSha1(b);
+            bytes = Utils.serialize(b);
+        }
+    }
+
+    /** Create an ObjectWriter that hands each Blob to STORE, with its SHA-1 ID and
+     *  serialized bytes, and each chunk of a large file to STORECHUNK, as for
+     *  ChunkedBlob.write. Both are called from many threads at once. */
+    ObjectWriter(BiConsumer<String, byte[]> store, BiConsumer<String, ByteBuffer> storeChunk) {
+        this.store = store;
+        this.storeChunk = storeChunk;
+    }
+
+    private static ThreadPoolExecutor stage(int threads) {
+        ThreadPoolExecutor result = new ThreadPoolExecutor(threads, threads,
+            1, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_DEPTH),
+            r -> {
+                Thread t = new Thread(r, "gitlet-object-writer");
+                t.setDaemon(true);
+                return t;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
+    /** Stores the contents of FILE as a Blob, or as chunks and a manifest if it is
+     *  large, and returns a future for its SHA-1 ID, completed once it is written.
+     *  The chunks of a large file are written as it is read, by the first stage. */
+    CompletableFuture<String> writeBlob(File file) {
+        if (file.length() >= ChunkedBlob.THRESHOLD) {
+            return CompletableFuture.supplyAsync(() -> ChunkedBlob.write(file, storeChunk),
+                    hashers)
+                .thenApplyAsync(manifest -> {
+                    store.accept(manifest.getId(), manifest.toBytes());
+                    return manifest.getId();
+                }, writers);
+        }
+        return CompletableFuture.supplyAsync(() -> new Serialized(new Blob(file)), hashers)
+            .thenApplyAsync(blob -> {
+                store.accept(blob.id, blob.bytes);
+                return blob.id;
+            }, writers);
+    }
+
+    /** Stores CONTENTS as a Blob, or as chunks and a manifest if they are large, and
+     *  returns a future completed once it is written. CONTENTS must not change. */
+    CompletableFuture<Void> writeBlob(byte[] contents) {
+        if (contents.length >= ChunkedBlob.THRESHOLD) {
+            return CompletableFuture.supplyAsync(() -> ChunkedBlob.write(
+                    new ByteArrayInputStream(contents), storeChunk), hashers)
+                .thenAcceptAsync(manifest ->
+                    store.accept(manifest.getId(), manifest.toBytes()), writers);
+        }
+        return CompletableFuture.supplyAsync(() -> new Serialized(new Blob(contents)), hashers)
+            .thenAcceptAsync(blob -> store.accept(blob.id, blob.bytes), writers);
+    }
+
+    /** Stops the pipeline's threads once their tasks are done. */
+    @Override
+    public void close() {
+        hashers.shutdown();
+        writers.shutdown();
+    }
+}
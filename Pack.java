@@ -0,0 +1,155 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A pack: many objects in one file, as sent between repositories by fetch and push.
+ * Objects are copied as the raw bytes of their files in the objects directories, or
+ * of their copies in an Archive, so nothing is deserialized on the sending side.
+ *
+ * The format is the magic number, the version, the object count, and then for each
+ * object a type byte, its 20-byte ID, its length and its bytes.
+ */
+class Pack {
+
+    /** The first four bytes of every pack: "GLPK". */
+    private static final int MAGIC = 0x474c504b;
+
+    /** The version of the format written. */
+    private static final int VERSION = 1;
+
+    /** The type byte of a Commit. */
+    static final byte COMMIT = 1;
+
+    /** The type byte of a Blob or chunk manifest. */
+    static final byte BLOB = 2;
+
+    /** The type byte of a chunk of a large file; see ChunkedBlob. */
+    static final byte CHUNK = 3;
+
+    /** Reads objects to be written, loose or archived. */
+    interface ObjectSource {
+        /** Returns the bytes of the file of the object ID of TYPE. */
+        byte[] read(byte type, String id);
+    }
+
+    /** Writes a pack to FILE holding the commits with the IDs COMMITIDS, then the
+     *  chunks with the IDs CHUNKIDS, then the blobs with the IDs BLOBIDS, all read
+     *  from SOURCE, and returns its length. Chunks come before the manifests that
+     *  list them. */
+    static long write(File file, Collection<String> commitIds, Collection<String> chunkIds,
+                      Collection<String> blobIds, ObjectSource source) {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(commitIds.size() + chunkIds.size() + blobIds.size());
+            for (String id : commitIds) {
+                writeObject(out, COMMIT, id, source.read(COMMIT, id));
+            }
+            for (String id : chunkIds) {
+                writeObject(out, CHUNK, id, source.read(CHUNK, id));
+            }
+            for (String id : blobIds) {
+                writeObject(out, BLOB, id, source.read(BLOB, id));
+            }
+            out.flush();
+            return out.size();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
+    private static void writeObject(DataOutputStream out, byte type, String id, byte[] data)
+            throws IOException {
+        out.writeByte(type);
+        out.write(Sha1.fromHex(id));
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /** Reads the objects of a pack in order. */
+    static class Reader implements Closeable {
+        /** The pack being read. */
+        private final DataInputStream in;
+
+        /** The number of objects not yet read. */
+        private int remaining;
+
+        /** The type of the current object. */
+        private byte type;
+
+        /** The ID of the current object. */
+        private String id;
+
+        /** The bytes of the current object. */
+        private byte[] data;
+
+        /** Opens the pack FILE. Throws IllegalArgumentException if it is not a pack. */
+        Reader(File file) {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    in.close();
+                    throw new IllegalArgumentException("not a pack: " + file);
+                }
+                remaining = in.readInt();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp);
+            }
+        }
+
+        /** Advances to the next object, returning false at the end of the pack.
+         *  Throws IllegalArgumentException if the pack is truncated. */
+        boolean next() {
+            if (remaining == 0) {
+                return false;
+            }
+            try {
+                type = in.readByte();
+                byte[] raw = new byte[Sha1.LENGTH];
+                in.readFully(raw);
+                id = Sha1.toHex(raw);
+                data = new byte[in.readInt()];
+                in.readFully(data);
+                remaining--;
+                return true;
+            } catch (EOFException excp) {
+                throw new IllegalArgumentException("truncated pack");
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp);
+            }
+        }
+
+        byte getType() {
+            return type;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp);
+            }
+        }
+    }
+}
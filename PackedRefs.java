@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The packed-refs file: every packed branch name with the SHA-1 ID of its head commit,
+ * one per line as "ID NAME", sorted by name. It is read in one sequential pass and
+ * searched by binary search, so listing or resolving branches does not open a file
+ * per branch. A loose branch file, written by every branch update, overrides the
+ * packed entry of the same name until gc packs it.
+ */
+class PackedRefs {
+
+    /** The first line of every packed-refs file. */
+    private static final String HEADER = "# gitlet packed-refs, sorted by name";
+
+    /** The packed refs of a repository without a packed-refs file. */
+    static final PackedRefs EMPTY = new PackedRefs(new String[0], new String[0]);
+
+    /** The branch names, sorted. */
+    private final String[] names;
+
+    /** The commit IDs of the branches, in the same order. */
+    private final String[] ids;
+
+    private PackedRefs(String[] names, String[] ids) {
+        this.names = names;
+        this.ids = ids;
+    }
+
+    /** Reads the packed-refs file FILE. Throws IllegalArgumentException if it is
+     *  malformed. */
+    static PackedRefs read(File file) {
+        if (!file.isFile()) {
+            return EMPTY;
+        }
+        String[] lines = Utils.readContentsAsString(file).split("\n");
+        List<String> names = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (String line : lines) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (space != Utils.UID_LENGTH) {
+                throw new IllegalArgumentException("malformed packed-refs line: " + line);
+            }
+            ids.add(line.substring(0, space));
+            names.add(line.substring(space + 1));
+        }
+        String[] sortedNames = names.toArray(new String[0]);
+        String[] sortedIds = ids.toArray(new String[0]);
+        for (int i = 1; i < sortedNames.length; i++) {
+            if (sortedNames[i - 1].compareTo(sortedNames[i]) >= 0) {
+                throw new IllegalArgumentException("packed-refs is not sorted");
+            }
+        }
+        return new PackedRefs(sortedNames, sortedIds);
+    }
+
+    /** Returns the contents of a packed-refs file holding REFS, which maps branch
+     *  names to commit IDs. */
+    static String format(SortedMap<String, String> refs) {
+        StringBuilder result = new StringBuilder(HEADER).append('\n');
+        for (Map.Entry<String, String> e : refs.entrySet()) {
+            result.append(e.getValue()).append(' ').append(e.getKey()).append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Returns the commit ID of the branch NAME, or null if it is not packed. */
+    String get(String name) {
+        int i = Arrays.binarySearch(names, name);
+        return i < 0 ? null : ids[i];
+    }
+
+    /** Returns the packed branch names, sorted. */
+    List<String> names() {
+        return Arrays.asList(names);
+    }
+
+    /** Returns the packed branches as a map from names to commit IDs. */
+    SortedMap<String, String> toMap() {
+        SortedMap<String, String> result = new TreeMap<>();
+        for (int i = 0; i < names.length; i++) {
+            result.put(names[i], ids[i]);
+        }
+        return result;
+    }
+}
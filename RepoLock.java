@@ -0,0 +1,93 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An exclusive lock on a file in the .gitlet directory. It excludes other processes
+ * through an operating-system file lock and other threads of this process through a
+ * ReentrantLock, since a file lock is held by the whole JVM. A thread may acquire a
+ * lock it already holds; only the outermost acquisition touches the file.
+ *
+ * Locks are held with try-with-resources whose body never names the lock, so the
+ * methods doing so suppress javac's "try" lint warning.
+ */
+class RepoLock implements AutoCloseable {
+
+    /** In-process locks, keyed by the canonical path of the lock file. */
+    private static final ConcurrentHashMap<String, ReentrantLock> LOCAL =
+            new ConcurrentHashMap<>();
+
+    /** The in-process lock backing this RepoLock. */
+    private final ReentrantLock local;
+
+    /** Run just before the outermost acquisition is released, or null. */
+    private final Runnable beforeRelease;
+
+    /** The open channel on the lock file, or null for a nested acquisition. */
+    private FileChannel channel;
+
+    /** The file lock, or null for a nested acquisition. */
+    private FileLock fileLock;
+
+    private RepoLock(ReentrantLock local, Runnable beforeRelease) {
+        this.local = local;
+        this.beforeRelease = beforeRelease;
+    }
+
+    /** Blocks until the calling thread holds the lock on file F, creating it if needed.
+     *  A lock held by a process that dies is released by the operating system.
+     *  BEFORERELEASE, if not null, is run when the outermost acquisition is released.
+     */
+    static RepoLock acquire(File f, Runnable beforeRelease) {
+        String key;
+        try {
+            f.getParentFile().mkdirs();
+            key = f.getCanonicalPath();
+        } catch (IOException e) {
+            throw Utils.error("Could not lock %s.", f.getName());
+        }
+        ReentrantLock local = LOCAL.computeIfAbsent(key, k -> new ReentrantLock());
+        local.lock();
+        RepoLock result = new RepoLock(local, beforeRelease);
+        if (local.getHoldCount() > 1) {
+            return result;
+        }
+        try {
+            result.channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            result.fileLock = result.channel.lock();
+        } catch (IOException e) {
+            result.close();
+            throw Utils.error("Could not lock %s.", f.getName());
+        }
+        return result;
+    }
+
+    /** Releases this lock. */
+    @Override
+    public void close() {
+        try {
+            if (fileLock != null) {
+                if (beforeRelease != null) {
+                    beforeRelease.run();
+                }
+                fileLock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw Utils.error("Could not unlock the repository.");
+        } finally {
+            fileLock = null;
+            channel = null;
+            local.unlock();
+        }
+    }
+}
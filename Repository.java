@@ -1,56 +1,1626 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.Queue;
 import java.util.LinkedList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static gitlet.Utils.*;
 
-/** Represents a Gitlet Repository, which maintains the necessary files and directories for Gitlet.
- *  There are static utility methods for loading and saving Commits, Blobs, and Branches.
+/** Represents a Gitlet Repository rooted at some working directory, which maintains the
+ *  necessary files and directories for Gitlet beneath it. Every Gitlet command is an
+ *  instance method that reports failure by throwing a GitletException, so a program can
+ *  drive any number of repositories in-process; Main is a command-line front end to it.
+ *  Commands that change the repository hold the index lock while they run.
+ *
+ *  All state belongs to the instance, so one process may serve many repositories from
+ *  many threads. An instance may be shared by threads: reads need no locking, and
+ *  writers are serialized by the index and branch locks.
  */
-public class Repository {
-    /** The current working directory. */
-    public static final File CWD = new File(System.getProperty("user.dir"));
+public class Repository implements AutoCloseable {
+    /** The working directory. */
+    private final File cwd;
+
     /** The .gitlet directory. */
-    public static final File GITLET_DIR = join(CWD, ".gitlet");
+    private final File gitletDir;
 
     /** The staging area for files to be added. */
-    public static final File STAGING_ADDITION = join(GITLET_DIR, "staging_addition");
+    private final File stagingAddition;
 
     /** The staging area for files to be deleted. */
-    public static final File STAGING_DELETION = join(GITLET_DIR, "staging_deletion");
+    private final File stagingDeletion;
 
     /** The directory for commits. */
-    public static final File COMMITS = join(GITLET_DIR, "commits");
+    private final File commits;
 
     /** The directory for blobs. */
-    public static final File BLOBS = join(GITLET_DIR, "blobs");
+    private final File blobs;
+
+    /** The directory for the chunks of large files; see ChunkedBlob. */
+    private final File chunks;
+
+    /** The directory of archives of cold objects; see Archive. */
+    private final File archives;
 
     /** The directory for branches. */
-    public static final File BRANCHES = join(GITLET_DIR, "branches");
+    private final File branches;
+
+    /** The HEAD file, which holds the name of the current branch. */
+    private final File head;
+
+    /** The packed-refs file; see PackedRefs. */
+    private final File packedRefsFile;
+
+    /** The directory of lock files. */
+    private final File locks;
+
+    /** The directory of remotes, each a file holding the path of another repository. */
+    private final File remotes;
+
+    /** The commit-graph file; see CommitGraph. */
+    private final File commitGraphFile;
+
+    /** The sparse-checkout file; see SparseCheckout. */
+    private final File sparseCheckoutFile;
+
+    /** The file-system watcher's journal of changed files. */
+    private final Watcher watcher;
+
+    /** The last working-tree snapshot, saved for the watcher; see WorkingTree. */
+    private final File treeCacheFile;
+
+    /** The IDs of files already hashed, by size and modification time; see StatCache. */
+    private final File statCacheFile;
+
+    /** The commit graph, read on first use. */
+    private CommitGraph commitGraph;
+
+    /** The archives opened so far, by name. Archives are never changed or removed. */
+    private final Map<String, Archive> archiveMap = new LinkedHashMap<>();
+
+    /** The modification time of the archives directory when it was last listed, or
+     *  null if it has not been. */
+    private FileTime archivesVersion;
+
+    /** The packed refs, read on first use. */
+    private PackedRefs packedRefs = PackedRefs.EMPTY;
 
-    /** Saves a Commit c to the commits directory, and updates branches accordingly. */
-    public static void saveCommit(Commit c) {
-        File f = Utils.join(COMMITS, Commit.getSha1(c));
-        Utils.writeObject(f, c);
+    /** The identity and modification time of the packed-refs file when packedRefs was
+     *  read, or null if it has not been. */
+    private List<Object> packedRefsVersion;
+
+    /** The rules of the .gitletignore file, read on first use. */
+    private IgnoreRules ignoreRules;
+
+    /** The modification time of the .gitletignore file when ignoreRules was read. */
+    private long ignoreRulesTime;
+
+    /** The number of lock files that branch updates are spread over. */
+    private static final int REF_LOCK_STRIPES = 64;
+
+    /** The number of Commits kept in the commit cache. */
+    private static final int COMMIT_CACHE_SIZE = 4096;
+
+    /** How durable writes are made: "always" forces every file to disk as it is
+     *  written, "batch" defers forcing until syncPending, and "off" never forces. */
+    private final String fsyncMode;
+
+    /** Files written in "batch" mode that have not been forced to disk yet. */
+    private final Set<Path> pendingSync = new LinkedHashSet<>();
+
+    /** Recently loaded Commits by SHA-1 ID, least recently used first. Commits are
+     *  immutable, so entries never go stale. */
+    private final Map<String, Commit> commitCache = Collections.synchronizedMap(
+        new LinkedHashMap<String, Commit>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                return size() > COMMIT_CACHE_SIZE;
+            }
+        });
+
+    /** Create a Repository whose working directory is ROOT, with the fsync mode
+     *  taken from the GITLET_FSYNC environment variable ("batch" if unset). The
+     *  repository itself need not exist yet; see init.
+     */
+    public Repository(File root) {
+        this(root, System.getenv("GITLET_FSYNC") == null
+                ? "batch" : System.getenv("GITLET_FSYNC"));
+    }
+
+    /** Create a Repository whose working directory is ROOT, making writes durable
+     *  according to FSYNCMODE: "always", "batch" or "off".
+     */
+    public Repository(File root, String fsyncMode) {
+        this.fsyncMode = fsyncMode;
+        cwd = root;
+        gitletDir = join(cwd, ".gitlet");
+        stagingAddition = join(gitletDir, "staging_addition");
+        stagingDeletion = join(gitletDir, "staging_deletion");
+        commits = join(gitletDir, "commits");
+        blobs = join(gitletDir, "blobs");
+        chunks = join(gitletDir, "chunks");
+        archives = join(gitletDir, "archives");
+        branches = join(gitletDir, "branches");
+        head = join(gitletDir, "HEAD");
+        packedRefsFile = join(gitletDir, "packed-refs");
+        locks = join(gitletDir, "locks");
+        remotes = join(gitletDir, "remotes");
+        commitGraphFile = join(gitletDir, "commit-graph");
+        sparseCheckoutFile = join(gitletDir, "sparse-checkout");
+        watcher = new Watcher(join(gitletDir, "watch"));
+        treeCacheFile = join(gitletDir, "watch", "tree");
+        statCacheFile = join(gitletDir, "stat-cache");
+    }
+
+    /** Returns the working directory of this Repository. */
+    public File getWorkingDirectory() {
+        return cwd;
+    }
 
-        File head = Utils.join(GITLET_DIR, "HEAD");
-        Branch b = Utils.readObject(head, Branch.class);
-        b = new Branch(c, b.getName(), true);
-        Utils.writeObject(head, b);
-        File branchFile = new File(BRANCHES, b.getName());
-        Utils.writeObject(branchFile, b);
+    /** Returns whether a Gitlet repository has been initialized here. */
+    public boolean isInitialized() {
+        return gitletDir.exists();
     }
 
-    /** Load a Commit object from a given file name. */
-    public static Commit loadCommit(String name) {
-        File f = Utils.join(COMMITS, name);
+    /* COMMANDS */
+
+    /** Initializes a Gitlet repository with a single initial commit on branch main. */
+    @SuppressWarnings("try")
+    public void init() {
+        if (gitletDir.exists()) {
+            throw error("A Gitlet version-control system already exists in the current "
+                    + "directory.");
+        }
+
+        gitletDir.mkdir();
+        stagingAddition.mkdir();
+        stagingDeletion.mkdir();
+        blobs.mkdir();
+        chunks.mkdir();
+        commits.mkdir();
+        branches.mkdir();
+        try (RepoLock l = lockIndex()) {
+            setHead("main");
+            Commit initialCommit = new Commit("initial commit", new Date(0), null,
+                    new HashMap<String, String>(), null);
+            saveCommit(initialCommit);
+        }
+    }
+
+    /** Stages the files NAMES for addition. A file identical to its version in the
+     *  current commit is unstaged instead. The name "." stands for every file in the
+     *  working directory not ignored by .gitletignore; files named explicitly are
+     *  added even if ignored.
+     */
+    @SuppressWarnings("try")
+    public void add(String... names) {
+        checkInitialized();
+        try (RepoLock l = lockIndex()) {
+            StatCache cache = StatCache.read(statCacheFile);
+            for (String name : names) {
+                if (name.equals(".")) {
+                    for (String s : scanWorkingTree(getCurrentCommit()).unignoredFiles()) {
+                        addFile(s, cache);
+                    }
+                } else {
+                    addFile(name, cache);
+                }
+            }
+            cache.save(statCacheFile);
+        }
+    }
+
+    /** Stages the working file NAME, hashing it unless CACHE already knows its ID. */
+    private void addFile(String name, StatCache cache) {
+        File f = join(cwd, name);
         if (!f.exists()) {
+            throw error("File does not exist.");
+        }
+        stageFile(name, cachedFileId(cache, f));
+    }
+
+    /** Stages the working file NAME, whose SHA-1 ID is ID, for addition, or unstages
+     *  it if it is identical to its version in the current commit. */
+    private void stageFile(String name, String id) {
+        File fRemoval = join(stagingDeletion, name);
+        if (fRemoval.exists()) {
+            fRemoval.delete();
+        }
+
+        File fAdd = join(stagingAddition, name);
+        Commit c = getCurrentCommit();
+        if (c.contains(name) && c.getBlobId(name).equals(id)) {
+            fAdd.delete();
+            return;
+        }
+
+        store(fAdd, join(cwd, name).toPath());
+    }
+
+    /** Commits the staged changes with MESSAGE and returns the new Commit. */
+    public Commit commit(String message) {
+        return commit(message, null);
+    }
+
+    @SuppressWarnings("try")
+    private Commit commit(String message, Commit parent2) {
+        checkInitialized();
+        if (message.equals("")) {
+            throw error("Please enter a commit message.");
+        }
+
+        try (RepoLock l = lockIndex()) {
+            if (plainFilenamesIn(stagingAddition).isEmpty()
+                    && plainFilenamesIn(stagingDeletion).isEmpty()) {
+                throw error("No changes added to the commit.");
+            }
+
+            /* Unchanged files keep their Blob IDs; staged files are hashed and
+             * written in parallel, and all of them are durable before the commit
+             * that refers to them is written. */
+            Commit c = getCurrentCommit();
+            Map<String, String> blobIds = new HashMap<>(c.getMap());
+            for (String s : plainFilenamesIn(stagingDeletion)) {
+                blobIds.remove(s);
+            }
+            Map<String, CompletableFuture<String>> written = new HashMap<>();
+            try (ObjectWriter writer = new ObjectWriter(this::saveBlob, this::saveChunk)) {
+                for (String s : plainFilenamesIn(stagingAddition)) {
+                    written.put(s, writer.writeBlob(join(stagingAddition, s)));
+                }
+                for (Map.Entry<String, CompletableFuture<String>> e : written.entrySet()) {
+                    blobIds.put(e.getKey(), e.getValue().join());
+                }
+            } catch (CompletionException excp) {
+                if (excp.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) excp.getCause();
+                }
+                throw excp;
+            }
+            syncPending();
+
+            Commit newCommit = new Commit(message, new Date(), c, blobIds, parent2);
+            saveCommit(newCommit);
+            clearStaging();
+            return newCommit;
+        }
+    }
+
+    /** Unstages the file NAME, and if it is tracked, stages it for removal and
+     *  deletes it from the working directory.
+     */
+    @SuppressWarnings("try")
+    public void remove(String name) {
+        checkInitialized();
+        try (RepoLock l = lockIndex()) {
+            if (!plainFilenamesIn(stagingAddition).contains(name)) {
+                if (!getCurrentCommit().getMap().containsKey(name)) {
+                    throw error("No reason to remove the file.");
+                }
+            }
+
+            File fRemoval = join(stagingAddition, name);
+            if (fRemoval.exists()) {
+                fRemoval.delete();
+            }
+
+            File fAdd = join(stagingDeletion, name);
+            store(fAdd, "");
+
+            File f = join(cwd, name);
+            if (f.exists() && getCurrentCommit().getMap().containsKey(name)) {
+                f.delete();
+            }
+        }
+    }
+
+    /** Returns the history of the current commit, newest first, following first
+     *  parents. Commits are loaded lazily as the Stream is consumed.
+     */
+    public Stream<Commit> log() {
+        checkInitialized();
+        return Stream.iterate(getCurrentCommit(), c -> c != null,
+            c -> c.getParent().equals("") ? null : loadCommit(c.getParent()));
+    }
+
+    /** Returns every commit in the repository, in no particular order. */
+    public Stream<Commit> globalLog() {
+        checkInitialized();
+        Set<String> ids = new LinkedHashSet<>(plainFilenamesIn(commits));
+        for (Archive a : archives()) {
+            ids.addAll(a.ids(Pack.COMMIT));
+        }
+        return ids.stream().map(this::loadCommit);
+    }
+
+    /** Returns the commits on the first-parent history of the current commit that
+     *  added, removed or changed the file PATH, newest first. The commit graph's
+     *  changed-path filters let most commits that did not touch PATH be skipped
+     *  without being loaded.
+     */
+    public Stream<Commit> fileHistory(String path) {
+        checkInitialized();
+        return Stream.iterate(Commit.getSha1(getCurrentCommit()), id -> !id.isEmpty(),
+            id -> commitGraphEntry(id).getParent())
+            .filter(id -> commitGraphEntry(id).mayHaveChanged(path))
+            .map(this::loadCommit)
+            .filter(c -> {
+                Commit parent = c.getParent().isEmpty() ? null : loadCommit(c.getParent());
+                String before = parent == null ? null : parent.getBlobId(path);
+                String after = c.getBlobId(path);
+                return after == null ? before != null : !after.equals(before);
+            });
+    }
+
+    /** Returns the SHA-1 IDs of all commits whose message is MESSAGE. */
+    public List<String> find(String message) {
+        checkInitialized();
+        return globalLog().filter(c -> c.getMessage().equals(message))
+                .map(Commit::getSha1).collect(Collectors.toList());
+    }
+
+    /** Returns the branches and staging areas of this repository. */
+    public Status status() {
+        checkInitialized();
+        Branch headBranch = getHeadBranch();
+        List<String> branchNames = new ArrayList<>(branchNames());
+
+        Commit headCommit = headBranch.getCommit();
+        List<String> removed = new ArrayList<>();
+        for (String s : plainFilenamesIn(stagingDeletion)) {
+            if (headCommit.getMap().containsKey(s)) {
+                removed.add(s);
+            }
+        }
+        return new Status(headBranch.getName(), branchNames,
+                plainFilenamesIn(stagingAddition), removed);
+    }
+
+    /** Returns the changes between the staging area and the tracked files of the
+     *  working directory. */
+    public List<FileChange> diff() {
+        checkInitialized();
+        Map<String, String> index = checkedOut(indexIds(getCurrentCommit()));
+        return diff(index, this::indexContents, workingIds(index.keySet()),
+            name -> readContents(join(cwd, name)));
+    }
+
+    /** Returns the changes between the current commit and the staging area. */
+    public List<FileChange> diffStaged() {
+        checkInitialized();
+        Commit c = getCurrentCommit();
+        return diff(c.getMap(), name -> blobContents(c, name), indexIds(c),
+            this::indexContents);
+    }
+
+    /** Returns the changes between the commit named by REV, a branch name or commit ID,
+     *  and the files of the working directory tracked by it or the staging area. */
+    public List<FileChange> diff(String rev) {
+        checkInitialized();
+        Commit c = resolveRevision(rev);
+        Map<String, String> from = checkedOut(c.getMap());
+        Set<String> tracked = new LinkedHashSet<>(from.keySet());
+        tracked.addAll(checkedOut(indexIds(getCurrentCommit())).keySet());
+        return diff(from, name -> blobContents(c, name), workingIds(tracked),
+            name -> readContents(join(cwd, name)));
+    }
+
+    /** Returns the changes between the commits named by FROM and TO, each a branch
+     *  name or commit ID. Only the files whose Blob IDs differ are loaded. */
+    public List<FileChange> diff(String from, String to) {
+        checkInitialized();
+        Commit a = resolveRevision(from);
+        Commit b = resolveRevision(to);
+        List<FileChange> changes = new ArrayList<>();
+        for (String name : b.changedPaths(a)) {
+            changes.add(fileChange(name, a.getBlobId(name), b.getBlobId(name),
+                n -> blobContents(a, n), n -> blobContents(b, n)));
+        }
+        return Diff.detectRenames(changes);
+    }
+
+    /** Returns the changes from the files FROM, by name, to the files TO, where each
+     *  maps names to Blob IDs. Files are compared by ID, and only those reported are
+     *  read, through FROMCONTENTS and TOCONTENTS, when their contents are needed. */
+    private List<FileChange> diff(Map<String, String> from,
+                                  Function<String, byte[]> fromContents,
+                                  Map<String, String> to,
+                                  Function<String, byte[]> toContents) {
+        Set<String> names = new TreeSet<>(from.keySet());
+        names.addAll(to.keySet());
+        List<FileChange> changes = new ArrayList<>();
+        for (String name : names) {
+            String before = from.get(name);
+            String after = to.get(name);
+            if (before == null || !before.equals(after)) {
+                changes.add(fileChange(name, before, after, fromContents, toContents));
+            }
+        }
+        return Diff.detectRenames(changes);
+    }
+
+    /** Returns the change to the file NAME from Blob ID BEFORE to Blob ID AFTER,
+     *  either null if the file is absent on that side, whose contents are read
+     *  through FROMCONTENTS and TOCONTENTS only when first needed. */
+    private static FileChange fileChange(String name, String before, String after,
+                                         Function<String, byte[]> fromContents,
+                                         Function<String, byte[]> toContents) {
+        FileChange.Kind kind = before == null ? FileChange.Kind.ADDED
+            : after == null ? FileChange.Kind.DELETED : FileChange.Kind.MODIFIED;
+        return new FileChange(kind, before == null ? null : name,
+            after == null ? null : name, before, after,
+            () -> fromContents.apply(name), () -> toContents.apply(name), 0);
+    }
+
+    /** Returns the Blob IDs of the files in the staging area, by name: those of
+     *  Commit C, the current commit, with staged additions and removals applied. */
+    private Map<String, String> indexIds(Commit c) {
+        Map<String, String> result = new TreeMap<>(c.getMap());
+        StatCache cache = StatCache.read(statCacheFile);
+        for (String s : plainFilenamesIn(stagingAddition)) {
+            result.put(s, cachedFileId(cache, join(stagingAddition, s)));
+        }
+        cache.save(statCacheFile);
+        for (String s : plainFilenamesIn(stagingDeletion)) {
+            result.remove(s);
+        }
+        return result;
+    }
+
+    /** Returns the contents of the file NAME in the staging area. */
+    private byte[] indexContents(String name) {
+        File staged = join(stagingAddition, name);
+        if (staged.exists()) {
+            return readContents(staged);
+        }
+        return blobContents(getCurrentCommit(), name);
+    }
+
+    /** Returns the entries of IDS, which maps file names to Blob IDs, for the files
+     *  in the sparse checkout. */
+    private Map<String, String> checkedOut(Map<String, String> ids) {
+        SparseCheckout sparse = sparseCheckout();
+        if (sparse.isFull()) {
+            return ids;
+        }
+        Map<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, String> e : ids.entrySet()) {
+            if (sparse.includes(e.getKey())) {
+                result.put(e.getKey(), e.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** Returns the Blob IDs of those files NAMES present in the working directory.
+     *  Only the files whose size or modification time in a snapshot differ from those
+     *  in the stat cache are hashed. */
+    private Map<String, String> workingIds(Set<String> names) {
+        WorkingTree tree = scanWorkingTree(getCurrentCommit());
+        StatCache cache = StatCache.read(statCacheFile);
+        Map<String, String> result = new TreeMap<>();
+        for (String name : names) {
+            WorkingTree.Entry e = tree.get(name);
+            if (e != null) {
+                result.put(name, cachedFileId(cache, join(cwd, name), e.getSize(),
+                    e.getLastModified()));
+            }
+        }
+        cache.save(statCacheFile);
+        return result;
+    }
+
+    private byte[] blobContents(Commit c, String name) {
+        return loadBlob(c.getBlobId(name)).getContents();
+    }
+
+    /** Restores the file NAME to its version in the current commit. */
+    @SuppressWarnings("try")
+    public void checkoutFile(String name) {
+        checkInitialized();
+        try (RepoLock l = lockIndex()) {
+            checkoutFile(getCurrentCommit(), name);
+        }
+    }
+
+    /** Restores the file NAME to its version in the commit whose SHA-1 ID starts
+     *  with COMMITID.
+     */
+    @SuppressWarnings("try")
+    public void checkoutFile(String commitId, String name) {
+        checkInitialized();
+        try (RepoLock l = lockIndex()) {
+            checkoutFile(loadCommit(resolveCommitId(commitId)), name);
+        }
+    }
+
+    private void checkoutFile(Commit c, String fileName) {
+        if (!c.getMap().containsKey(fileName)) {
+            throw error("File does not exist in that commit.");
+        }
+        writeBlobTo(c.getBlobId(fileName), join(cwd, fileName));
+    }
+
+    /** Makes NAME the current branch, replacing the working directory with the
+     *  contents of its head commit and clearing the staging areas.
+     */
+    @SuppressWarnings("try")
+    public void checkoutBranch(String name) {
+        checkInitialized();
+        try (RepoLock l = lockIndex()) {
+            if (!branchExists(name)) {
+                throw error("No such branch exists.");
+            }
+
+            Branch b = getHeadBranch();
+            if (b.getName().equals(name)) {
+                throw error("No need to checkout the current branch.");
+            }
+
+            Commit currentCommit = b.getCommit();
+            Branch checkoutBranch = loadBranch(name);
+            Commit checkoutCommit = checkoutBranch.getCommit();
+            WorkingTree tree = scanWorkingTree(currentCommit);
+            tree.checkNoUntracked();
+            for (String s : tree.trackedFiles()) {
+                join(cwd, s).delete();
+            }
+
+            setHead(checkoutBranch.getName());
+            SparseCheckout sparse = sparseCheckout();
+            for (String s : checkoutCommit.getMap().keySet()) {
+                if (sparse.includes(s)) {
+                    checkoutFile(checkoutCommit, s);
+                }
+            }
+
+            clearStaging();
+        }
+    }
+
+    /** Creates a new branch NAME at the current commit. */
+    public void branch(String name) {
+        checkInitialized();
+        if (branchExists(name)) {
+            throw error("A branch with that name already exists.");
+        }
+
+        Branch b = new Branch(getCurrentCommit(), name, false);
+        compareAndSwapBranch(b, "");
+    }
+
+    /** Deletes the branch NAME, which must not be the current branch. */
+    public void removeBranch(String name) {
+        checkInitialized();
+        if (!branchExists(name)) {
+            throw error("A branch with that name does not exist.");
+        }
+
+        Branch b = getHeadBranch();
+        if (b.getName().equals(name)) {
+            throw error("Cannot remove the current branch.");
+        }
+
+        deleteBranch(name);
+    }
+
+    /** Moves the current branch to the commit whose SHA-1 ID starts with COMMITID,
+     *  replacing the working directory with its contents and clearing the staging areas.
+     */
+    @SuppressWarnings("try")
+    public void reset(String commitId) {
+        checkInitialized();
+        try (RepoLock l = lockIndex()) {
+            String commitName = resolveCommitId(commitId);
+
+            Branch b = getHeadBranch();
+            Commit currentCommit = b.getCommit();
+            Commit checkoutCommit = loadCommit(commitName);
+            WorkingTree tree = scanWorkingTree(currentCommit);
+            tree.checkNoUntracked();
+            for (String s : tree.trackedFiles()) {
+                join(cwd, s).delete();
+            }
+
+            Branch changedBranch = new Branch(checkoutCommit, b.getName(), true);
+            compareAndSwapBranch(changedBranch, Commit.getSha1(currentCommit));
+            SparseCheckout sparse = sparseCheckout();
+            for (String s : checkoutCommit.getMap().keySet()) {
+                if (sparse.includes(s)) {
+                    checkoutFile(checkoutCommit, s);
+                }
+            }
+
+            clearStaging();
+        }
+    }
+
+    /** Merges the branch BRANCHNAME into the current branch. */
+    @SuppressWarnings("try")
+    public MergeResult merge(String branchName) {
+        checkInitialized();
+        try (RepoLock l = lockIndex()) {
+            Branch b = getHeadBranch();
+            Commit headCommit = b.getCommit();
+            mergeCheckErrors(branchName, b, scanWorkingTree(headCommit));
+            Commit other = loadBranch(branchName).getCommit();
+            Commit split = latestAncestor(headCommit, other);
+            if (Commit.getSha1(headCommit).equals(Commit.getSha1(split))) {
+                checkoutBranch(loadBranch(branchName).getName());
+                return new MergeResult(true, null, new ArrayList<>());
+            }
+            List<String> conflicts = new ArrayList<>();
+            /* Files are compared by Blob ID, and conflicting ones are streamed.
+             * Files outside a sparse checkout are staged without being written,
+             * unless they conflict. */
+            SparseCheckout sparse = sparseCheckout();
+            for (String s : split.getMap().keySet()) {
+                String splitId = split.getBlobId(s);
+                String headId = headCommit.getBlobId(s);
+                String otherId = other.getBlobId(s);
+                if (splitId.equals(headId)) {
+                    if (!splitId.equals(otherId)) {
+                        if (otherId == null) {
+                            remove(s);
+                        } else if (!sparse.includes(s)) {
+                            stageBlob(s, otherId);
+                        } else {
+                            checkoutFile(other, s);
+                            stageFile(s, otherId);
+                        }
+                        continue;
+                    }
+                }
+                if (!splitId.equals(headId)) {
+                    if (!splitId.equals(otherId)) {
+                        if (!Objects.equals(headId, otherId)) {
+                            writeConflict(s, headId, otherId);
+                            conflicts.add(s);
+                        }
+                    }
+                }
+            }
+            for (String s : other.getMap().keySet()) {
+                if (!headCommit.contains(s) && !split.contains(s)) {
+                    if (!sparse.includes(s)) {
+                        stageBlob(s, other.getBlobId(s));
+                        continue;
+                    }
+                    writeBlobTo(other.getBlobId(s), join(cwd, s));
+                    stageFile(s, other.getBlobId(s));
+                }
+            }
+            Commit merged = commit("Merged " + branchName + " into " + b.getName() + ".",
+                    other);
+            return new MergeResult(false, merged, conflicts);
+        }
+    }
+
+    /** Tidies the repository's storage. For now this packs the loose branch files
+     *  into the packed-refs file. */
+    public void gc() {
+        checkInitialized();
+        packRefs();
+    }
+
+    /** Moves the objects only old history needs out of the loose object directories
+     *  into a new Archive. A commit is cold if it is older than CUTOFF and no branch
+     *  points at it; the blobs it refers to, and their chunks, are cold unless a
+     *  commit that is not cold shares them. Objects no commit refers to stay loose.
+     *  Every read falls through to the archives, so this changes only where objects
+     *  are kept. The archive is durable before any loose file is deleted. */
+    @SuppressWarnings("try")
+    public ArchiveResult archive(Date cutoff) {
+        checkInitialized();
+        long start = System.nanoTime();
+        try (RepoLock l = lockIndex()) {
+            Set<String> tips = new HashSet<>(packedRefs().toMap().values());
+            for (String name : looseBranchNames(branches, "")) {
+                Branch b = loadBranch(name);
+                if (b != null) {
+                    tips.add(Commit.getSha1(b.getCommit()));
+                }
+            }
+
+            /* Cold commits are stored newest first, so that a walk back through
+             * history reads the archive's blocks in order. */
+            List<Commit> coldCommits = new ArrayList<>();
+            Set<String> hotBlobs = new HashSet<>();
+            for (String id : plainFilenamesIn(commits)) {
+                Commit c = readCommit(join(commits, id));
+                if (c == null) {
+                    continue;
+                }
+                if (tips.contains(id) || !c.getTime().before(cutoff)) {
+                    hotBlobs.addAll(c.getMap().values());
+                } else {
+                    coldCommits.add(c);
+                }
+            }
+            coldCommits.sort(Comparator.comparing(Commit::getTime).reversed());
+            List<String> commitIds = new ArrayList<>();
+            Set<String> blobIds = new LinkedHashSet<>();
+            for (Commit c : coldCommits) {
+                commitIds.add(Commit.getSha1(c));
+                for (String id : c.getMap().values()) {
+                    if (!hotBlobs.contains(id) && join(blobs, id).isFile()) {
+                        blobIds.add(id);
+                    }
+                }
+            }
+            Set<String> chunkIds = new LinkedHashSet<>();
+            for (String id : blobIds) {
+                ChunkedBlob m = loadManifest(id);
+                if (m != null) {
+                    chunkIds.addAll(m.getChunkIds());
+                }
+            }
+            if (!chunkIds.isEmpty()) {
+                for (String id : hotBlobs) {
+                    ChunkedBlob m = join(blobs, id).isFile() ? loadManifest(id) : null;
+                    if (m != null) {
+                        chunkIds.removeAll(m.getChunkIds());
+                    }
+                }
+                chunkIds.removeIf(id -> !join(chunks, id).isFile());
+            }
+            if (commitIds.isEmpty() && blobIds.isEmpty()) {
+                return new ArchiveResult(null, 0, 0, 0, 0, 0, System.nanoTime() - start);
+            }
+
+            String name;
+            try (Archive a = Archive.write(archives, commitIds, chunkIds, blobIds,
+                    this::readObjectBytes)) {
+                name = a.getName();
+            }
+            long looseBytes = 0;
+            for (String id : commitIds) {
+                looseBytes += join(commits, id).length();
+                join(commits, id).delete();
+            }
+            for (String id : chunkIds) {
+                looseBytes += join(chunks, id).length();
+                join(chunks, id).delete();
+            }
+            for (String id : blobIds) {
+                looseBytes += join(blobs, id).length();
+                join(blobs, id).delete();
+            }
+            long archiveBytes = join(archives, name + ".archive").length()
+                + join(archives, name + ".idx").length();
+            return new ArchiveResult(name, commitIds.size(), blobIds.size(),
+                chunkIds.size(), looseBytes, archiveBytes, System.nanoTime() - start);
+        }
+    }
+
+    /** Returns whether the file F starts like a chunk manifest. Only its first
+     *  bytes are read. */
+    private static boolean isManifestFile(File f) {
+        try (InputStream in = new FileInputStream(f)) {
+            return ChunkedBlob.isManifest(in.readNBytes(4));
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Imports the stream of commits IN, as described in FastImport, and then moves
+     *  each branch it names to its newest imported commit. The working directory and
+     *  staging area are not touched, even if the current branch moves. Fails without
+     *  moving any branch if the stream is malformed or a branch is changed meanwhile
+     *  by another process, and then removes the commits it stored, which nothing
+     *  refers to. */
+    @SuppressWarnings("try")
+    public ImportResult fastImport(InputStream in) {
+        checkInitialized();
+        long start = System.nanoTime();
+        try (RepoLock l = lockIndex();
+             ObjectWriter writer = new ObjectWriter(this::saveBlob, this::saveChunk)) {
+            Map<String, String> before = new HashMap<>();
+            Function<String, String> branchHead = name -> {
+                Branch b = loadBranch(name);
+                return b == null ? null : Commit.getSha1(b.getCommit());
+            };
+            List<String> stored = new ArrayList<>();
+            FastImport importer = new FastImport(writer, id -> hasObject(Pack.BLOB, id),
+                this::loadCommit, (c, parent) -> {
+                    String id = Commit.getSha1(c);
+                    if (!hasObject(Pack.COMMIT, id)) {
+                        stored.add(id);
+                    }
+                    storeObject(join(commits, id), c);
+                    addToCommitGraph(c, parent);
+                }, name -> {
+                    String id = branchHead.apply(name);
+                    before.putIfAbsent(name, id == null ? "" : id);
+                    return id;
+                }, this::syncPending);
+
+            Map<String, String> branchIds = new TreeMap<>();
+            try {
+                importer.run(in);
+                String headName = getHeadName();
+                for (Map.Entry<String, Commit> e : importer.getTips().entrySet()) {
+                    String name = e.getKey();
+                    compareAndSwapBranch(new Branch(e.getValue(), name,
+                        name.equals(headName)), before.get(name));
+                    branchIds.put(name, Commit.getSha1(e.getValue()));
+                }
+            } catch (RuntimeException excp) {
+                if (branchIds.isEmpty()) {
+                    for (String id : stored) {
+                        join(commits, id).delete();
+                        commitCache.remove(id);
+                    }
+                }
+                throw excp;
+            }
+            return new ImportResult(importer.getCommits(), importer.getBlobs(),
+                importer.getBytes(), System.nanoTime() - start, branchIds);
+        }
+    }
+
+    /** Checks every object and reference: that each commit, blob and chunk hashes to
+     *  its name, that the parents and files of every commit exist, and that every
+     *  branch and HEAD name an existing commit or branch. Loose objects are checked in
+     *  parallel and streamed, so memory does not grow with their size; archived ones
+     *  are checked block by block, along with the archives themselves. */
+    public FsckResult fsck() {
+        checkInitialized();
+        long start = System.nanoTime();
+        List<String> problems = Collections.synchronizedList(new ArrayList<>());
+        LongAdder bytes = new LongAdder();
+
+        List<String> chunkIds = chunks.isDirectory() ? plainFilenamesIn(chunks) : List.of();
+        Set<String> goodChunks = ConcurrentHashMap.newKeySet();
+        chunkIds.parallelStream().forEach(Stats.inCurrent(id -> {
+            File f = join(chunks, id);
+            bytes.add(f.length());
+            try (InputStream in = new FileInputStream(f)) {
+                if (Sha1.toHex(Sha1.digest(in)).equals(id)) {
+                    goodChunks.add(id);
+                } else {
+                    problems.add("corrupt chunk " + id);
+                }
+            } catch (IOException excp) {
+                problems.add("unreadable chunk " + id + ": " + excp.getMessage());
+            }
+        }));
+        Collection<Archive> archived = archives();
+        Set<String> opened = new HashSet<>();
+        for (Archive a : archived) {
+            opened.add(a.getName() + ".idx");
+        }
+        for (String name : archiveIndexNames()) {
+            if (!opened.contains(name)) {
+                problems.add("corrupt archive " + name);
+            }
+        }
+        long archivedObjects = 0;
+        for (Archive a : archived) {
+            archivedObjects += a.size();
+            forEachArchived(a, Pack.CHUNK, problems, (id, data) -> {
+                bytes.add(data.length);
+                if (sha1(data).equals(id)) {
+                    goodChunks.add(id);
+                } else {
+                    problems.add("corrupt chunk " + id + " in " + a.getName());
+                }
+            });
+        }
+
+        List<String> blobIds = plainFilenamesIn(blobs);
+        Set<String> goodBlobs = ConcurrentHashMap.newKeySet();
+        blobIds.parallelStream().forEach(Stats.inCurrent(id -> {
+            bytes.add(join(blobs, id).length());
+            String problem = checkBlob(id, goodChunks);
+            if (problem == null) {
+                goodBlobs.add(id);
+            } else {
+                problems.add(problem);
+            }
+        }));
+        for (Archive a : archived) {
+            forEachArchived(a, Pack.BLOB, problems, (id, data) -> {
+                bytes.add(data.length);
+                String problem = checkBlobData(id, data, goodChunks);
+                if (problem == null) {
+                    goodBlobs.add(id);
+                } else {
+                    problems.add(problem + " in " + a.getName());
+                }
+            });
+        }
+
+        /* Each commit is read once; its parents are looked up afterwards. Walking
+         * all of its files costs no more than finding those it changed, which would
+         * mean reading its parent too. */
+        List<String> commitIds = plainFilenamesIn(commits);
+        Set<String> goodCommits = ConcurrentHashMap.newKeySet();
+        Map<String, String> parentRefs = new ConcurrentHashMap<>();
+        Map<String, String> blobRefs = new ConcurrentHashMap<>();
+        BiConsumer<String, Commit> checkCommit = (id, c) -> {
+            if (c == null || !Commit.getSha1(c).equals(id) || !c.isIntact()) {
+                problems.add("corrupt commit " + id);
+                return;
+            }
+            goodCommits.add(id);
+            if (!c.getParent().isEmpty()) {
+                parentRefs.putIfAbsent(c.getParent(), id);
+            }
+            if (!c.getParent2().isEmpty()) {
+                parentRefs.putIfAbsent(c.getParent2(), id);
+            }
+            for (Map.Entry<String, String> e : c.getMap().entrySet()) {
+                if (!goodBlobs.contains(e.getValue())) {
+                    blobRefs.putIfAbsent(e.getValue(), id + " (" + e.getKey() + ")");
+                }
+            }
+        };
+        commitIds.parallelStream().forEach(Stats.inCurrent(id -> {
+            File f = join(commits, id);
+            bytes.add(f.length());
+            checkCommit.accept(id, readCommit(f));
+        }));
+        for (Archive a : archived) {
+            forEachArchived(a, Pack.COMMIT, problems, (id, data) -> {
+                bytes.add(data.length);
+                Commit c;
+                try {
+                    c = deserialize(data, Commit.class);
+                } catch (IllegalArgumentException excp) {
+                    c = null;
+                }
+                checkCommit.accept(id, c);
+            });
+        }
+        parentRefs.forEach((parent, child) -> {
+            if (!goodCommits.contains(parent)) {
+                problems.add("commit " + child + ": missing or corrupt parent " + parent);
+            }
+        });
+        blobRefs.forEach((blobId, where) ->
+            problems.add("commit " + where + ": missing or corrupt blob " + blobId));
+
+        checkRefs(goodCommits, problems);
+        Collections.sort(problems);
+        return new FsckResult(problems,
+            (long) chunkIds.size() + blobIds.size() + commitIds.size() + archivedObjects,
+            bytes.sum(),
+            System.nanoTime() - start);
+    }
+
+    /** Returns the problem with the blob ID, whose chunks, if any, must be among
+     *  GOODCHUNKS, or null if it is sound. Its contents are hashed as they are read. */
+    private String checkBlob(String id, Set<String> goodChunks) {
+        File f = join(blobs, id);
+        String actual;
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long offset = Blob.contentsOffset(ch);
+            ChunkedBlob m = offset < 0 ? loadManifest(id) : null;
+            if (offset >= 0) {
+                ch.position(offset);
+                actual = Sha1.toHex(Sha1.digest(Channels.newInputStream(ch)));
+            } else if (m != null) {
+                for (String chunkId : m.getChunkIds()) {
+                    if (!goodChunks.contains(chunkId)) {
+                        return "blob " + id + ": missing or corrupt chunk " + chunkId;
+                    }
+                }
+                actual = chunkedBlobId(m);
+            } else {
+                actual = Blob.getSha1(readObject(f, Blob.class));
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            return "corrupt blob " + id;
+        }
+        return actual.equals(id) ? null : "corrupt blob " + id;
+    }
+
+    /** Returns the problem with the blob ID whose file holds DATA, as for checkBlob,
+     *  or null if it is sound. */
+    private String checkBlobData(String id, byte[] data, Set<String> goodChunks) {
+        String actual;
+        try {
+            if (ChunkedBlob.isManifest(data)) {
+                ChunkedBlob m = ChunkedBlob.parse(id, data);
+                for (String chunkId : m.getChunkIds()) {
+                    if (!goodChunks.contains(chunkId)) {
+                        return "blob " + id + ": missing or corrupt chunk " + chunkId;
+                    }
+                }
+                actual = chunkedBlobId(m);
+            } else {
+                actual = Blob.getSha1(deserialize(data, Blob.class));
+            }
+        } catch (IllegalArgumentException excp) {
+            return "corrupt blob " + id;
+        }
+        return actual.equals(id) ? null : "corrupt blob " + id;
+    }
+
+    /** Calls ACTION with each object of TYPE in the archive A, adding to PROBLEMS
+     *  instead if the archive is damaged. */
+    private static void forEachArchived(Archive a, byte type, List<String> problems,
+                                        BiConsumer<String, byte[]> action) {
+        try {
+            a.forEach(type, action);
+        } catch (IllegalArgumentException excp) {
+            problems.add("corrupt archive " + a.getName());
+        }
+    }
+
+    /** Returns the commit in the file F, without caching it, or null if it is missing
+     *  or unreadable. */
+    private static Commit readCommit(File f) {
+        if (!f.isFile()) {
+            return null;
+        }
+        try {
+            return readObject(f, Commit.class);
+        } catch (IllegalArgumentException excp) {
             return null;
         }
+    }
+
+    /** Adds to PROBLEMS every branch, loose or packed, whose commit is not among
+     *  GOODCOMMITS, and HEAD if it does not name a branch. */
+    private void checkRefs(Set<String> goodCommits, List<String> problems) {
+        for (String name : looseBranchNames(branches, "")) {
+            Branch b;
+            try {
+                b = readObject(join(branches, name), Branch.class);
+            } catch (IllegalArgumentException excp) {
+                problems.add("corrupt branch " + name);
+                continue;
+            }
+            String id = Commit.getSha1(b.getCommit());
+            if (!goodCommits.contains(id)) {
+                problems.add("branch " + name + ": missing or corrupt commit " + id);
+            }
+        }
+        PackedRefs packed;
         try {
-            Commit commit = Utils.readObject(f, Commit.class);
+            packed = PackedRefs.read(packedRefsFile);
+        } catch (IllegalArgumentException excp) {
+            problems.add("corrupt packed-refs: " + excp.getMessage());
+            packed = PackedRefs.EMPTY;
+        }
+        for (Map.Entry<String, String> e : packed.toMap().entrySet()) {
+            if (!goodCommits.contains(e.getValue())) {
+                problems.add("packed branch " + e.getKey() + ": missing or corrupt commit "
+                    + e.getValue());
+            }
+        }
+        try {
+            String name = getHeadName();
+            if (!join(branches, name).isFile() && packed.get(name) == null) {
+                problems.add("HEAD: no such branch " + name);
+            }
+        } catch (IllegalArgumentException excp) {
+            problems.add("corrupt HEAD");
+        }
+    }
+
+    /** Watches the working directory for changes until the process is killed, so that
+     *  other commands need examine only the files changed since they last looked. */
+    public void watch() {
+        checkInitialized();
+        watcher.run(cwd);
+    }
+
+    /** Returns the patterns of the sparse checkout, or an empty list if every file
+     *  is checked out. */
+    public List<String> sparseCheckoutPatterns() {
+        checkInitialized();
+        return sparseCheckout().getPatterns();
+    }
+
+    /** Checks out only the files matched by PATTERNS, in .gitletignore syntax, or every
+     *  file if PATTERNS is empty. Files of the current commit that leave the selection
+     *  are deleted from the working directory and those that join it are written;
+     *  a file that is staged or changed is never deleted. */
+    @SuppressWarnings("try")
+    public void setSparseCheckout(List<String> patterns) {
+        checkInitialized();
+        try (RepoLock l = lockIndex()) {
+            SparseCheckout next = new SparseCheckout(patterns);
+            Commit c = getCurrentCommit();
+            List<String> staged = plainFilenamesIn(stagingAddition);
+            List<String> removed = plainFilenamesIn(stagingDeletion);
+            List<String> leaving = new ArrayList<>();
+            for (String s : c.getMap().keySet()) {
+                File f = join(cwd, s);
+                if (next.includes(s) || !f.isFile()) {
+                    continue;
+                }
+                if (staged.contains(s) || !c.getBlobId(s).equals(fileId(f))) {
+                    throw error("File %s has changes; commit or restore it first.", s);
+                }
+                leaving.add(s);
+            }
+
+            if (next.isFull()) {
+                sparseCheckoutFile.delete();
+            } else {
+                store(sparseCheckoutFile, next.format());
+            }
+            for (String s : leaving) {
+                join(cwd, s).delete();
+            }
+            for (String s : c.getMap().keySet()) {
+                if (next.includes(s) && !join(cwd, s).exists() && !removed.contains(s)) {
+                    checkoutFile(c, s);
+                }
+            }
+        }
+    }
+
+    /** Records the repository at PATH, its working directory or its .gitlet directory,
+     *  as the remote NAME. A relative PATH is taken from the working directory. */
+    public void addRemote(String name, String path) {
+        checkInitialized();
+        File f = join(remotes, name);
+        if (f.exists()) {
+            throw error("A remote with that name already exists.");
+        }
+        remotes.mkdir();
+        store(f, path.replace("/", File.separator));
+    }
+
+    /** Forgets the remote NAME. */
+    public void removeRemote(String name) {
+        checkInitialized();
+        if (!join(remotes, name).delete()) {
+            throw error("A remote with that name does not exist.");
+        }
+    }
+
+    /** Copies the branch BRANCHNAME of the remote REMOTENAME into the branch
+     *  REMOTENAME/BRANCHNAME, fetching only the commits and blobs missing here. */
+    public void fetch(String remoteName, String branchName) {
+        checkInitialized();
+        Branch b;
+        try (Repository remote = openRemote(remoteName)) {
+            b = remote.loadBranch(branchName);
+            if (b == null) {
+                throw error("That remote does not have that branch.");
+            }
+            remote.sendPack(Commit.getSha1(b.getCommit()), this);
+        }
+
+        String name = remoteName + "/" + branchName;
+        Branch current = loadBranch(name);
+        compareAndSwapBranch(new Branch(b.getCommit(), name, false),
+                current == null ? "" : Commit.getSha1(current.getCommit()));
+    }
+
+    /** Advances the branch BRANCHNAME of the remote REMOTENAME to the current commit,
+     *  sending only the commits and blobs it is missing. The remote branch must be
+     *  an ancestor of the current commit, and must not be the remote's current
+     *  branch, whose working directory would no longer match it. */
+    public void push(String remoteName, String branchName) {
+        checkInitialized();
+        try (Repository remote = openRemote(remoteName)) {
+            if (branchName.equals(remote.getHeadName())) {
+                throw error("Refusing to update the checked-out branch of the remote.");
+            }
+            Commit headCommit = getCurrentCommit();
+            Branch b = remote.loadBranch(branchName);
+            String expected = b == null ? "" : Commit.getSha1(b.getCommit());
+            if (!expected.isEmpty() && !reaches(Commit.getSha1(headCommit), expected)) {
+                throw error("Please pull down remote changes before pushing.");
+            }
+            sendPack(Commit.getSha1(headCommit), remote);
+            remote.compareAndSwapBranch(new Branch(headCommit, branchName, false), expected);
+        }
+    }
+
+    /** Fetches the branch BRANCHNAME of the remote REMOTENAME and merges it into the
+     *  current branch. If the current commit is an ancestor of the fetched one, the
+     *  current branch is moved to it, rather than checking out the fetched branch
+     *  as merge does. */
+    @SuppressWarnings("try")
+    public MergeResult pull(String remoteName, String branchName) {
+        try (RepoLock l = lockIndex()) {
+            fetch(remoteName, branchName);
+            String name = remoteName + "/" + branchName;
+            String fetched = Commit.getSha1(loadBranch(name).getCommit());
+            String current = Commit.getSha1(getCurrentCommit());
+            if (!fetched.equals(current) && reaches(fetched, current)) {
+                reset(fetched);
+                return new MergeResult(true, null, new ArrayList<>());
+            }
+            return merge(name);
+        }
+    }
+
+    /** Throws a GitletException if the branch BRANCHNAME cannot be merged into the
+     *  current branch B, whose working directory is TREE. */
+    private void mergeCheckErrors(String branchName, Branch b, WorkingTree tree) {
+        tree.checkNoUntracked();
+        if (!tree.getStaged().isEmpty() || !tree.getRemoved().isEmpty()) {
+            throw error("You have uncommitted changes.");
+        }
+        if (!branchExists(branchName)) {
+            throw error("A branch with that name does not exist.");
+        }
+        if (b.getName().equals(branchName)) {
+            throw error("Cannot merge a branch with itself.");
+        }
+        Commit headCommit = b.getCommit();
+        Commit other = loadBranch(branchName).getCommit();
+        Commit split = latestAncestor(headCommit, other);
+        if (Commit.getSha1(other).equals(Commit.getSha1(split))) {
+            throw error("Given branch is an ancestor of the current branch.");
+        }
+    }
+
+    /** Returns the full SHA-1 ID of the commit whose ID starts with PREFIX. */
+    private String resolveCommitId(String prefix) {
+        for (String id : plainFilenamesIn(commits)) {
+            if (id.startsWith(prefix)) {
+                return id;
+            }
+        }
+        for (Archive a : archives()) {
+            String id = a.findPrefix(Pack.COMMIT, prefix);
+            if (id != null) {
+                return id;
+            }
+        }
+        throw error("No commit with that id exists.");
+    }
+
+    /** Returns the commit at the head of the branch NAME or, if there is no such
+     *  branch, the commit whose SHA-1 ID starts with NAME. */
+    private Commit resolveRevision(String name) {
+        if (branchExists(name)) {
+            return loadBranch(name).getCommit();
+        }
+        return loadCommit(resolveCommitId(name));
+    }
+
+    /** Takes a snapshot of the working directory, relative to the current commit HEAD. */
+    private WorkingTree scanWorkingTree(Commit head) {
+        return WorkingTree.scan(cwd, head, plainFilenamesIn(stagingAddition),
+            plainFilenamesIn(stagingDeletion), ignoreRules(), sparseCheckout(), watcher,
+            treeCacheFile);
+    }
+
+    /** Returns the patterns of the sparse checkout. */
+    private SparseCheckout sparseCheckout() {
+        return SparseCheckout.read(sparseCheckoutFile);
+    }
+
+    /** Stages the blob ID as the new version of the file NAME without writing it to
+     *  the working directory. */
+    private void stageBlob(String name, String id) {
+        join(stagingDeletion, name).delete();
+        store(join(stagingAddition, name), blobParts(id));
+    }
+
+    /** Returns the rules of the .gitletignore file, rereading them if it has changed. */
+    private synchronized IgnoreRules ignoreRules() {
+        long time = join(cwd, ".gitletignore").lastModified();
+        if (ignoreRules == null || time != ignoreRulesTime) {
+            ignoreRules = IgnoreRules.load(cwd);
+            ignoreRulesTime = time;
+        }
+        return ignoreRules;
+    }
+
+    /** Returns the repository recorded as the remote NAME. */
+    private Repository openRemote(String name) {
+        File f = join(remotes, name);
+        if (!f.isFile()) {
+            throw error("A remote with that name does not exist.");
+        }
+        File dir = new File(readContentsAsString(f));
+        if (!dir.isAbsolute()) {
+            dir = join(cwd, dir.getPath());
+        }
+        if (dir.getName().equals(".gitlet")) {
+            dir = dir.getParentFile();
+        }
+        Repository remote = new Repository(dir, fsyncMode);
+        if (!remote.isInitialized()) {
+            throw error("Remote directory not found.");
+        }
+        return remote;
+    }
+
+    /** Returns whether the commit TARGET is the commit FROM or one of its ancestors. */
+    private boolean reaches(String from, String target) {
+        Set<String> seen = new HashSet<>();
+        Queue<String> fringe = new ArrayDeque<>();
+        fringe.add(from);
+        while (!fringe.isEmpty()) {
+            String id = fringe.remove();
+            if (id.equals(target)) {
+                return true;
+            }
+            if (!id.isEmpty() && seen.add(id)) {
+                CommitGraph.Entry e = commitGraphEntry(id);
+                fringe.add(e.getParent());
+                fringe.add(e.getParent2());
+            }
+        }
+        return false;
+    }
+
+    /** Sends DEST, as a single pack, the commits reachable from the commit TIP that
+     *  it does not have, and the blobs they refer to that it does not have. The walk
+     *  stops at commits DEST already has, which it has with all their history, so
+     *  the cost is proportional to the history sent. Each commit sent is loaded
+     *  anyway, so its parents are taken from it rather than from the commit graph,
+     *  and sending writes nothing here: a fetch leaves the remote untouched. */
+    private void sendPack(String tip, Repository dest) {
+        List<String> commitIds = new ArrayList<>();
+        Set<String> chunkIds = new LinkedHashSet<>();
+        Set<String> blobIds = new LinkedHashSet<>();
+        Set<String> seen = new HashSet<>();
+        Queue<String> fringe = new ArrayDeque<>();
+        fringe.add(tip);
+        while (!fringe.isEmpty()) {
+            String id = fringe.remove();
+            if (id.isEmpty() || !seen.add(id) || dest.hasObject(Pack.COMMIT, id)) {
+                continue;
+            }
+            commitIds.add(id);
+            Commit c = loadCommit(id);
+            fringe.add(c.getParent());
+            fringe.add(c.getParent2());
+
+            /* A file unchanged from the parent has a blob the parent sends or DEST has. */
+            Commit parent = c.getParent().isEmpty() ? null : loadCommit(c.getParent());
+            for (String path : c.changedPaths(parent)) {
+                String blobId = c.getBlobId(path);
+                if (blobId != null && !dest.hasObject(Pack.BLOB, blobId)
+                        && blobIds.add(blobId)) {
+                    ChunkedBlob m = loadManifest(blobId);
+                    if (m != null) {
+                        for (String chunkId : m.getChunkIds()) {
+                            if (!dest.hasObject(Pack.CHUNK, chunkId)) {
+                                chunkIds.add(chunkId);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (commitIds.isEmpty()) {
+            return;
+        }
+
+        File pack = join(dest.gitletDir, "incoming.pack." + Long.toHexString(System.nanoTime()));
+        try {
+            Pack.write(pack, commitIds, chunkIds, blobIds, this::readObjectBytes);
+            dest.receivePack(pack);
+        } finally {
+            pack.delete();
+        }
+    }
+
+    /** Stores the objects in the pack PACK, checking that each has the ID it is
+     *  sent under. */
+    private void receivePack(File pack) {
+        try (Pack.Reader in = new Pack.Reader(pack)) {
+            while (in.next()) {
+                String id = in.getId();
+                if (in.getType() == Pack.COMMIT) {
+                    Commit c = deserialize(in.getData(), Commit.class);
+                    if (!Commit.getSha1(c).equals(id) || !c.isIntact()) {
+                        throw error("Received a corrupt commit %s.", id);
+                    }
+                    store(join(commits, id), in.getData());
+                } else if (in.getType() == Pack.CHUNK) {
+                    if (!sha1(in.getData()).equals(id)) {
+                        throw error("Received a corrupt chunk %s.", id);
+                    }
+                    saveChunk(id, ByteBuffer.wrap(in.getData()));
+                } else if (ChunkedBlob.isManifest(in.getData())) {
+                    ChunkedBlob m = ChunkedBlob.parse(id, in.getData());
+                    if (!chunkedBlobId(m).equals(id)) {
+                        throw error("Received a corrupt blob %s.", id);
+                    }
+                    store(join(blobs, id), in.getData());
+                } else {
+                    Blob b = deserialize(in.getData(), Blob.class);
+                    if (!Blob.getSha1(b).equals(id)) {
+                        throw error("Received a corrupt blob %s.", id);
+                    }
+                    store(join(blobs, id), in.getData());
+                }
+            }
+        }
+    }
+
+    /** Empties both staging areas. */
+    private void clearStaging() {
+        for (String s : plainFilenamesIn(stagingAddition)) {
+            File fRemove = join(stagingAddition, s);
+            fRemove.delete();
+        }
+        for (String s : plainFilenamesIn(stagingDeletion)) {
+            File fRemove = join(stagingDeletion, s);
+            fRemove.delete();
+        }
+    }
+
+    private void checkInitialized() {
+        if (!isInitialized()) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+    }
+
+    /* LOCKS */
+
+    /** Locks the index: HEAD, the staging areas and the working directory.
+     *  Reads need no lock, since objects are immutable and every other file is
+     *  replaced by an atomic rename.
+     */
+    public RepoLock lockIndex() {
+        return RepoLock.acquire(join(locks, "index"), this::syncPending);
+    }
+
+    /** Locks the branch NAME against concurrent updates. Branches are striped
+     *  over a fixed set of lock files, so updates to different branches rarely
+     *  contend and the number of lock files stays bounded.
+     */
+    public RepoLock lockBranch(String name) {
+        int stripe = Math.floorMod(name.hashCode(), REF_LOCK_STRIPES);
+        return RepoLock.acquire(join(locks, "ref-" + stripe), null);
+    }
+
+    /* DURABILITY */
+
+    /** Atomically replaces FILE with the concatenation of CONTENTS, forcing it to
+     *  disk now or later according to the fsync mode. */
+    private void store(File file, Object... contents) {
+        writeContentsAtomic(file, fsyncMode.equals("always"), contents);
+        if (fsyncMode.equals("batch")) {
+            synchronized (pendingSync) {
+                pendingSync.add(file.toPath());
+            }
+        }
+    }
+
+    /** Atomically replaces FILE with the serialized OBJ, as for store. */
+    private void storeObject(File file, Serializable obj) {
+        store(file, serialize(obj));
+    }
+
+    /** Forces every file written in "batch" mode since the last call, along with
+     *  the directories containing them, to disk. Called before a branch is updated
+     *  and when the index lock is released. */
+    public void syncPending() {
+        List<Path> files;
+        synchronized (pendingSync) {
+            files = new ArrayList<>(pendingSync);
+            pendingSync.clear();
+        }
+        Set<Path> dirs = new LinkedHashSet<>();
+        for (Path p : files) {
+            dirs.add(p.getParent());
+        }
+        files.parallelStream().forEach(Utils::force);
+        for (Path d : dirs) {
+            force(d);
+        }
+    }
+
+    /* OBJECTS AND REFERENCES */
+
+    /** Returns the commit graph, reading it on first use. */
+    private synchronized CommitGraph commitGraph() {
+        if (commitGraph == null) {
+            commitGraph = new CommitGraph(commitGraphFile);
+        }
+        return commitGraph;
+    }
+
+    /** Returns the commit-graph record of the commit ID, adding one if it has none.
+     *  Called by read-only commands, so it takes only the commit-graph lock. */
+    private CommitGraph.Entry commitGraphEntry(String id) {
+        CommitGraph.Entry e = commitGraph().get(id);
+        if (e == null) {
+            Commit c = loadCommit(id);
+            e = addToCommitGraph(c, c.getParent().isEmpty() ? null : loadCommit(c.getParent()));
+        }
+        return e;
+    }
+
+    /** Appends the record of Commit C, whose first parent is PARENT (null if it has
+     *  none), to the commit graph, and returns it. The commit-graph lock is taken
+     *  only around the append, and no other lock is taken while it is held, so any
+     *  caller may take it, whatever locks it already holds. */
+    @SuppressWarnings("try")
+    private CommitGraph.Entry addToCommitGraph(Commit c, Commit parent) {
+        try (RepoLock l = RepoLock.acquire(join(locks, "commit-graph"), null)) {
+            return commitGraph().add(c, parent);
+        }
+    }
+
+    /** Saves a Commit c to the commits directory, then advances the current branch to it.
+     *  The commit and everything it refers to are durable before the branch moves. */
+    public void saveCommit(Commit c) {
+        long start = Stats.begin();
+        File f = join(commits, Commit.getSha1(c));
+        storeObject(f, c);
+        addToCommitGraph(c, c.getParent().isEmpty() ? null : loadCommit(c.getParent()));
+        compareAndSwapBranch(new Branch(c, getHeadName(), true), c.getParent());
+        Stats.end(Stats.Op.SAVE_COMMIT, start, f.length());
+    }
+
+    /** Load a Commit object from a given file name, or from the archives if it is
+     *  not loose. */
+    public Commit loadCommit(String name) {
+        long start = Stats.begin();
+        Commit cached = commitCache.get(name);
+        if (cached != null) {
+            Stats.end(Stats.Op.LOAD_COMMIT, start, 0);
+            return cached;
+        }
+        File f = join(commits, name);
+        try {
+            Commit commit;
+            long length;
+            if (f.exists()) {
+                commit = readObject(f, Commit.class);
+                length = f.length();
+            } else {
+                byte[] data = readArchived(Pack.COMMIT, name);
+                if (data == null) {
+                    return null;
+                }
+                commit = deserialize(data, Commit.class);
+                length = data.length;
+            }
+            commitCache.put(name, commit);
+            Stats.end(Stats.Op.LOAD_COMMIT, start, length);
             return commit;
         } catch (IllegalArgumentException e) {
             return null;
@@ -58,57 +1628,559 @@ public class Repository {
     }
 
     /** Saves a Blob b to the blobs directory. */
-    public static void saveBlob(Blob b) {
-        File f = Utils.join(BLOBS, Blob.getSha1(b));
-        Utils.writeObject(f, b);
+    public void saveBlob(Blob b) {
+        saveBlob(Blob.getSha1(b), serialize(b));
     }
 
-    /** Load a Blob object from a given file name. */
-    public static Blob loadBlob(String name) {
-        File f = Utils.join(BLOBS, name);
-        if (!f.exists()) {
-            return null;
+    /** Saves the serialized Blob BYTES, whose SHA-1 ID is ID, unless it is there
+     *  already. Safe to call from many threads. */
+    private void saveBlob(String id, byte[] bytes) {
+        long start = Stats.begin();
+        File f = join(blobs, id);
+        if (f.exists()) {
+            Stats.end(Stats.Op.SAVE_BLOB, start, 0);
+            return;
+        }
+        store(f, bytes);
+        Stats.end(Stats.Op.SAVE_BLOB, start, bytes.length);
+    }
+
+    /** Saves the chunk DATA, whose SHA-1 ID is ID, unless it is there already.
+     *  Safe to call from many threads. */
+    private void saveChunk(String id, ByteBuffer data) {
+        File f = join(chunks, id);
+        if (f.exists()) {
+            return;
         }
+        if (!chunks.isDirectory()) {
+            chunks.mkdir();
+        }
+        store(f, data);
+    }
+
+    /** Load a Blob object from a given file name, or from the archives if it is not
+     *  loose. A large file stored in chunks is assembled into one Blob; writeBlobTo
+     *  avoids that. */
+    public Blob loadBlob(String name) {
+        long start = Stats.begin();
+        File f = join(blobs, name);
         try {
-            Blob blob = Utils.readObject(f, Blob.class);
+            byte[] data = f.exists() ? readContents(f) : readArchived(Pack.BLOB, name);
+            if (data == null) {
+                return null;
+            }
+            Blob blob;
+            if (ChunkedBlob.isManifest(data)) {
+                ChunkedBlob m = ChunkedBlob.parse(name, data);
+                if (m.getLength() > Integer.MAX_VALUE - 8) {
+                    throw error("File %s is too large to load whole.", name);
+                }
+                ByteArrayOutputStream contents = new ByteArrayOutputStream((int) m.getLength());
+                for (String chunkId : m.getChunkIds()) {
+                    contents.writeBytes(readObjectBytes(Pack.CHUNK, chunkId));
+                }
+                blob = new Blob(contents.toByteArray());
+            } else {
+                blob = deserialize(data, Blob.class);
+            }
+            Stats.end(Stats.Op.LOAD_BLOB, start, data.length);
             return blob;
         } catch (IllegalArgumentException e) {
             return null;
         }
     }
 
-    /** Saves a branch b to the branches directory. */
-    public static void saveBranch(Branch b) {
-        File f = Utils.join(BRANCHES, b.getName());
-        Utils.writeObject(f, b);
+    /** Returns the manifest stored as the blob ID, or null if that blob is not
+     *  stored in chunks. */
+    private ChunkedBlob loadManifest(String id) {
+        File f = join(blobs, id);
+        byte[] data;
+        if (f.isFile()) {
+            /* A manifest of a huge file can be larger than a plain Blob, so the two
+             * are told apart by their first bytes, not their length. */
+            if (!isManifestFile(f)) {
+                return null;
+            }
+            data = readContents(f);
+        } else {
+            data = readArchived(Pack.BLOB, id);
+        }
+        return data != null && ChunkedBlob.isManifest(data) ? ChunkedBlob.parse(id, data)
+            : null;
+    }
+
+    /** Returns the directory of the loose objects of TYPE, one of Pack's type bytes. */
+    private File objectDir(byte type) {
+        return type == Pack.COMMIT ? commits : type == Pack.CHUNK ? chunks : blobs;
     }
 
-    /** Load a Branch object from a given file name. */
-    public static Branch loadBranch(String name) {
-        File f = Utils.join(BRANCHES, name);
-        if (!f.exists()) {
-            return null;
+    /** Returns whether the object ID of TYPE, one of Pack's type bytes, is stored,
+     *  loose or archived. */
+    private boolean hasObject(byte type, String id) {
+        if (join(objectDir(type), id).isFile()) {
+            return true;
+        }
+        for (Archive a : archives()) {
+            if (a.contains(type, id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the bytes of the file of the object ID of TYPE, loose or archived.
+     *  Throws a GitletException if it is not stored. */
+    private byte[] readObjectBytes(byte type, String id) {
+        File f = join(objectDir(type), id);
+        byte[] result = f.isFile() ? readContents(f) : readArchived(type, id);
+        if (result == null) {
+            throw error("Missing object %s.", id);
+        }
+        return result;
+    }
+
+    /** Returns the bytes of the object ID of TYPE from the archives, or null if none
+     *  holds it. */
+    private byte[] readArchived(byte type, String id) {
+        for (Archive a : archives()) {
+            byte[] result = a.read(type, id);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the archives, opening any added since the directory was last listed.
+     *  Archives that cannot be opened are left out; fsck reports them. */
+    private synchronized Collection<Archive> archives() {
+        if (!archives.isDirectory()) {
+            return List.of();
         }
+        FileTime time;
         try {
-            Branch branch = Utils.readObject(f, Branch.class);
-            return branch;
-        } catch (IllegalArgumentException e) {
+            time = Files.getLastModifiedTime(archives.toPath());
+        } catch (IOException excp) {
+            return List.of();
+        }
+        if (!time.equals(archivesVersion)) {
+            for (String name : archiveIndexNames()) {
+                if (!archiveMap.containsKey(name)) {
+                    try {
+                        archiveMap.put(name, new Archive(join(archives, name)));
+                    } catch (IllegalArgumentException excp) {
+                        continue;
+                    }
+                }
+            }
+            archivesVersion = time;
+        }
+        return List.copyOf(archiveMap.values());
+    }
+
+    /** Closes the archives opened so far. The Repository may still be used; archives
+     *  are opened again as they are needed. */
+    @Override
+    public synchronized void close() {
+        for (Archive a : archiveMap.values()) {
+            a.close();
+        }
+        archiveMap.clear();
+        archivesVersion = null;
+    }
+
+    /** Returns the names of the index files in the archives directory. */
+    private List<String> archiveIndexNames() {
+        List<String> result = new ArrayList<>();
+        if (archives.isDirectory()) {
+            for (String name : plainFilenamesIn(archives)) {
+                if (name.endsWith(".idx") && !name.startsWith(".")) {
+                    result.add(name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Replaces the file TARGET with the contents of the blob ID, copying them from
+     *  the object files with FileChannel.transferTo rather than through the heap.
+     *  Links are never used, since editing the working file in place would then
+     *  change the stored object. */
+    private void writeBlobTo(String id, File target) {
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            copyBlob(id, out);
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", target.getName(), excp.getMessage());
+        }
+    }
+
+    /** Returns the contents of the blob ID as parts for store: the mapped region of
+     *  its object file holding them, or the files of its chunks, so that they are
+     *  copied without being loaded. Archived chunks and Blobs, and Blobs not laid out
+     *  as Blob.contentsOffset expects, are loaded. */
+    private Object[] blobParts(String id) {
+        File f = join(blobs, id);
+        if (f.isFile()) {
+            try (FileChannel src = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                long offset = Blob.contentsOffset(src);
+                if (offset >= 0) {
+                    return new Object[] {
+                        src.map(FileChannel.MapMode.READ_ONLY, offset, src.size() - offset)
+                    };
+                }
+            } catch (IOException excp) {
+                throw error("Cannot read blob %s: %s", id, excp.getMessage());
+            }
+        }
+        ChunkedBlob m = loadManifest(id);
+        if (m == null) {
+            Blob b = loadBlob(id);
+            if (b == null) {
+                throw error("Missing object %s.", id);
+            }
+            return new Object[] {b.getContents()};
+        }
+        List<Object> result = new ArrayList<>();
+        for (String chunkId : m.getChunkIds()) {
+            File chunk = join(chunks, chunkId);
+            result.add(chunk.isFile() ? chunk.toPath() : readObjectBytes(Pack.CHUNK, chunkId));
+        }
+        return result.toArray();
+    }
+
+    /** Writes the contents of the blob ID to OUT, straight from its object file or
+     *  chunks. Only a Blob not laid out as Blob.contentsOffset expects is loaded
+     *  whole. */
+    private void copyBlob(String id, WritableByteChannel out) throws IOException {
+        long start = Stats.begin();
+        long length = 0;
+        try {
+            if (!join(blobs, id).isFile()) {
+                length = copyArchivedBlob(id, out);
+                return;
+            }
+            try (FileChannel src = FileChannel.open(join(blobs, id).toPath(),
+                    StandardOpenOption.READ)) {
+                long offset = Blob.contentsOffset(src);
+                ChunkedBlob m = offset < 0 ? loadManifest(id) : null;
+                if (offset >= 0) {
+                    length = src.size() - offset;
+                    transfer(src, offset, length, out);
+                } else if (m != null) {
+                    for (String chunkId : m.getChunkIds()) {
+                        copyChunk(chunkId, out);
+                    }
+                    length = m.getLength();
+                } else {
+                    byte[] contents = loadBlob(id).getContents();
+                    writeFully(out, contents);
+                    length = contents.length;
+                }
+            }
+        } finally {
+            Stats.end(Stats.Op.LOAD_BLOB, start, length);
+        }
+    }
+
+    /** Writes the contents of the archived blob ID to OUT, and returns their length.
+     *  Blobs are archived small or in chunks, so this holds little in memory. */
+    private long copyArchivedBlob(String id, WritableByteChannel out) throws IOException {
+        byte[] data = readObjectBytes(Pack.BLOB, id);
+        if (ChunkedBlob.isManifest(data)) {
+            ChunkedBlob m = ChunkedBlob.parse(id, data);
+            for (String chunkId : m.getChunkIds()) {
+                copyChunk(chunkId, out);
+            }
+            return m.getLength();
+        }
+        byte[] contents = deserialize(data, Blob.class).getContents();
+        writeFully(out, contents);
+        return contents.length;
+    }
+
+    /** Writes the chunk ID, loose or archived, to OUT. */
+    private void copyChunk(String id, WritableByteChannel out) throws IOException {
+        File f = join(chunks, id);
+        if (!f.isFile()) {
+            writeFully(out, readObjectBytes(Pack.CHUNK, id));
+            return;
+        }
+        try (FileChannel chunk = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            transfer(chunk, 0, chunk.size(), out);
+        }
+    }
+
+    /** Writes the file NAME of the working directory as a merge conflict between the
+     *  blobs HEADID and OTHERID, either of which is null if that side deleted it, and
+     *  stages it. Both sides are copied as bytes, never decoded, and the result is
+     *  hashed as it is written, so memory use does not grow with the files. */
+    private void writeConflict(String name, String headId, String otherId) {
+        MessageDigest md = Sha1.start();
+        try (WritableByteChannel out = Channels.newChannel(
+                 new DigestOutputStream(new FileOutputStream(join(cwd, name)), md))) {
+            writeFully(out, "<<<<<<< HEAD\n");
+            if (headId != null) {
+                copyBlob(headId, out);
+            }
+            writeFully(out, "=======\n");
+            if (otherId != null) {
+                copyBlob(otherId, out);
+            }
+            writeFully(out, ">>>>>>>\n");
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", name, excp.getMessage());
+        }
+        stageFile(name, Sha1.toHex(md.digest()));
+    }
+
+    /** Writes the UTF-8 encoding of S to OUT. */
+    private static void writeFully(WritableByteChannel out, String s) throws IOException {
+        writeFully(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Writes DATA to OUT. */
+    private static void writeFully(WritableByteChannel out, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /** Returns the SHA-1 ID of the file F, which is that of its Blob, hashing it as
+     *  it is read. */
+    private static String fileId(File f) {
+        try (InputStream in = new FileInputStream(f)) {
+            return Sha1.toHex(Sha1.digest(in));
+        } catch (IOException excp) {
+            throw error("Cannot read %s: %s", f.getName(), excp.getMessage());
+        }
+    }
+
+    /** Returns the SHA-1 ID of the file F as fileId does, taking it from CACHE if F
+     *  has not changed since it was recorded there. */
+    private String cachedFileId(StatCache cache, File f) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw error("Cannot read %s: %s", f.getName(), excp.getMessage());
+        }
+        return cachedFileId(cache, f, attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    /** Returns the SHA-1 ID of the file F, last seen with SIZE and LASTMODIFIED, taking
+     *  it from CACHE if it was recorded with both, and otherwise hashing F and
+     *  recording it. Files are recorded by their path from the working directory. */
+    private String cachedFileId(StatCache cache, File f, long size, long lastModified) {
+        String name = cwd.toPath().relativize(f.toPath()).toString();
+        String id = cache.get(name, size, lastModified);
+        if (id == null) {
+            long readTime = System.currentTimeMillis();
+            id = fileId(f);
+            cache.put(name, size, lastModified, readTime, id);
+        }
+        return id;
+    }
+
+    /** Returns the SHA-1 ID of the file whose chunks the manifest M lists, reading
+     *  them from the chunks directory or the archives. */
+    private String chunkedBlobId(ChunkedBlob m) {
+        MessageDigest md = Sha1.start();
+        for (String chunkId : m.getChunkIds()) {
+            md.update(readObjectBytes(Pack.CHUNK, chunkId));
+        }
+        return Sha1.toHex(md.digest());
+    }
+
+    /** Saves a branch b to the branches directory, as a loose branch file. */
+    public void saveBranch(Branch b) {
+        long start = Stats.begin();
+        File f = join(branches, b.getName());
+        f.getParentFile().mkdirs();
+        storeObject(f, b);
+        Stats.end(Stats.Op.SAVE_BRANCH, start, f.length());
+    }
+
+    /** Replaces the branch named by b, provided that it currently points at the
+     *  Commit with SHA-1 ID EXPECTED, or does not exist yet if EXPECTED is empty.
+     *  Pending object writes are flushed first, so the branch never refers to
+     *  anything that could be lost in a crash. */
+    @SuppressWarnings("try")
+    public void compareAndSwapBranch(Branch b, String expected) {
+        syncPending();
+        try (RepoLock l = lockBranch(b.getName())) {
+            Branch current = loadBranch(b.getName());
+            String actual = current == null ? "" : Commit.getSha1(current.getCommit());
+            if (!actual.equals(expected)) {
+                throw error("Branch %s was changed by another process.", b.getName());
+            }
+            saveBranch(b);
+        }
+    }
+
+    /** Deletes the branch NAME, loose and packed. Returns false if it did not exist.
+     *  The packed-refs lock is held throughout, even for a branch that is only
+     *  loose, so that packRefs cannot read the loose file before it goes and write
+     *  it back into packed-refs after. */
+    @SuppressWarnings("try")
+    public boolean deleteBranch(String name) {
+        try (RepoLock l = lockBranch(name);
+             RepoLock p = RepoLock.acquire(join(locks, "packed-refs"), null)) {
+            boolean existed = join(branches, name).delete();
+            SortedMap<String, String> refs = PackedRefs.read(packedRefsFile).toMap();
+            if (refs.remove(name) != null) {
+                store(packedRefsFile, PackedRefs.format(refs));
+                existed = true;
+            }
+            return existed;
+        }
+    }
+
+    /** Returns whether the branch NAME exists, loose or packed. */
+    public boolean branchExists(String name) {
+        return join(branches, name).isFile() || packedRefs().get(name) != null;
+    }
+
+    /** Returns the names of all local branches, loose and packed, in lexicographic
+     *  order. Remote-tracking branches, whose names hold a '/', are left out. */
+    public List<String> branchNames() {
+        Set<String> result = new TreeSet<>(plainFilenamesIn(branches));
+        for (String name : packedRefs().names()) {
+            if (name.indexOf('/') < 0) {
+                result.add(name);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Moves every loose branch into the packed-refs file. Loose files are deleted
+     *  only if their branch has not moved since it was packed. */
+    @SuppressWarnings("try")
+    public void packRefs() {
+        checkInitialized();
+        SortedMap<String, String> packed;
+        try (RepoLock p = RepoLock.acquire(join(locks, "packed-refs"), null)) {
+            packed = PackedRefs.read(packedRefsFile).toMap();
+            for (String name : looseBranchNames(branches, "")) {
+                Branch b = loadBranch(name);
+                if (b != null) {
+                    packed.put(name, Commit.getSha1(b.getCommit()));
+                }
+            }
+            syncPending();
+            store(packedRefsFile, PackedRefs.format(packed));
+            syncPending();
+        }
+        for (String name : looseBranchNames(branches, "")) {
+            try (RepoLock l = lockBranch(name)) {
+                File f = join(branches, name);
+                Branch b = f.isFile() ? readObject(f, Branch.class) : null;
+                if (b != null && Commit.getSha1(b.getCommit()).equals(packed.get(name))) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /** Returns the names of the loose branches in DIR, a directory of branches whose
+     *  names start with PREFIX, and in its subdirectories. */
+    private static List<String> looseBranchNames(File dir, String prefix) {
+        List<String> result = new ArrayList<>();
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return result;
+        }
+        for (File f : entries) {
+            if (f.isDirectory()) {
+                result.addAll(looseBranchNames(f, prefix + f.getName() + "/"));
+            } else if (f.isFile() && !f.getName().startsWith(".")) {
+                result.add(prefix + f.getName());
+            }
+        }
+        return result;
+    }
+
+    /** Returns the packed refs, rereading the packed-refs file if it has been replaced. */
+    private synchronized PackedRefs packedRefs() {
+        List<Object> version;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(packedRefsFile.toPath(),
+                BasicFileAttributes.class);
+            version = Arrays.asList(attrs.fileKey(), attrs.lastModifiedTime(), attrs.size());
+        } catch (IOException excp) {
+            version = Collections.emptyList();
+        }
+        if (!version.equals(packedRefsVersion)) {
+            packedRefs = version.isEmpty() ? PackedRefs.EMPTY : PackedRefs.read(packedRefsFile);
+            packedRefsVersion = version;
+        }
+        return packedRefs;
+    }
+
+    /** Load the branch NAME: its loose branch file if it has one, or else its packed
+     *  entry. Returns null if there is no such branch, and throws a GitletException
+     *  if its packed entry names a commit that is missing or corrupt. */
+    public Branch loadBranch(String name) {
+        long start = Stats.begin();
+        File f = join(branches, name);
+        if (f.exists()) {
+            try {
+                Branch branch = readObject(f, Branch.class);
+                Stats.end(Stats.Op.LOAD_BRANCH, start, f.length());
+                return branch;
+            } catch (IllegalArgumentException e) {
+                /* A file that is still there is corrupt. One that is gone was packed
+                 * meanwhile by packRefs, which deletes it only once packed-refs
+                 * holds it. */
+                if (f.exists()) {
+                    return null;
+                }
+            }
+        }
+        String id = packedRefs().get(name);
+        if (id == null) {
             return null;
         }
+        Commit c = loadCommit(id);
+        if (c == null) {
+            throw error("Branch %s names a missing or corrupt commit %s.", name, id);
+        }
+        Branch branch = new Branch(c, name, false);
+        Stats.end(Stats.Op.LOAD_BRANCH, start, 0);
+        return branch;
+    }
+
+    /** Returns the name of the current branch. */
+    public String getHeadName() {
+        byte[] contents = readContents(head);
+        if (contents.length > 1 && contents[0] == (byte) 0xac && contents[1] == (byte) 0xed) {
+            /* Repositories made before HEAD became a plain name hold a serialized Branch. */
+            return readObject(head, Branch.class).getName();
+        }
+        return readContentsAsString(head);
+    }
+
+    /** Makes the branch NAME the current branch. */
+    public void setHead(String name) {
+        store(head, name);
+    }
+
+    /** Loads the current branch. */
+    public Branch getHeadBranch() {
+        return loadBranch(getHeadName());
     }
 
     /** Loads the HEAD commit. */
-    public static Commit getCurrentCommit() {
-        File head = Utils.join(GITLET_DIR, "HEAD");
-        Branch headBranch = Utils.readObject(head, Branch.class);
-        return headBranch.getCommit();
+    public Commit getCurrentCommit() {
+        return getHeadBranch().getCommit();
     }
 
     /**
-     * Helper method for gitletMerge. Determines the latest common ancestor of Commits A, B.
+     * Helper method for merge. Determines the latest common ancestor of Commits A, B.
      * For this algorithm, we perform a Breadth-First Search.
      */
-    public static Commit latestAncestor(Commit a, Commit b) {
+    public Commit latestAncestor(Commit a, Commit b) {
         Queue<Commit> fringe = new LinkedList<>();
         fringe.add(a);
         while (!fringe.isEmpty()) {
@@ -120,10 +2192,10 @@ public class Repository {
                 return node;
             }
 
-            Commit next = Repository.loadCommit(node.getParent());
+            Commit next = loadCommit(node.getParent());
             fringe.add(next);
             if (node.getIsMerge()) {
-                Commit next2 = Repository.loadCommit(node.getParent2());
+                Commit next2 = loadCommit(node.getParent2());
                 fringe.add(next2);
             }
         }
@@ -132,7 +2204,7 @@ public class Repository {
     }
 
     /** Private helper method for determining if Commit A is an ancestor of Commit B. */
-    private static boolean isAncestor(Commit a, Commit b) {
+    private boolean isAncestor(Commit a, Commit b) {
         if (a.getParent().equals("")) {
             return true;
         }
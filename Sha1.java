@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 hashing without per-call setup. Each thread reuses one MessageDigest, one
+ * UTF-8 encoder and one scratch buffer, so hashing a byte array or String allocates
+ * only the result. IDs are available raw, as 20-byte arrays, or as the 40-digit
+ * lowercase hexadecimal Strings used to name objects, via a table-driven encoder.
+ */
+class Sha1 {
+
+    /** The length of a raw SHA-1 ID in bytes. */
+    static final int LENGTH = 20;
+
+    /** The size of the per-thread scratch buffer. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Hexadecimal digits, indexed by value. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The reusable hashing state of one thread. */
+    private static class State {
+        private final MessageDigest digest;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final byte[] scratch = new byte[BUFFER_SIZE];
+        private final ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch);
+
+        State() {
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support SHA-1");
+            }
+        }
+    }
+
+    /** The hashing state of each thread. */
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    /** Returns this thread's digest, reset and ready for input. Callers must not
+     *  hash anything else on this thread until they have taken its digest. */
+    static MessageDigest start() {
+        MessageDigest md = STATE.get().digest;
+        md.reset();
+        return md;
+    }
+
+    /** Adds the UTF-8 encoding of S to MD without allocating a byte array,
+     *  and returns the number of bytes added. */
+    static long update(MessageDigest md, String s) {
+        State state = STATE.get();
+        CharsetEncoder encoder = state.encoder.reset();
+        CharBuffer in = CharBuffer.wrap(s);
+        long length = 0;
+        while (true) {
+            state.scratchBuffer.clear();
+            CoderResult result = encoder.encode(in, state.scratchBuffer, true);
+            if (result.isUnderflow()) {
+                result = encoder.flush(state.scratchBuffer);
+            }
+            md.update(state.scratch, 0, state.scratchBuffer.position());
+            length += state.scratchBuffer.position();
+            if (result.isUnderflow()) {
+                return length;
+            }
+        }
+    }
+
+    /** Returns the raw SHA-1 ID of DATA. */
+    static byte[] digest(byte[] data) {
+        long start = Stats.begin();
+        byte[] result = start().digest(data);
+        Stats.end(Stats.Op.SHA1, start, data.length);
+        return result;
+    }
+
+    /** Returns the raw SHA-1 ID of the remaining bytes of DATA, consuming them. */
+    static byte[] digest(ByteBuffer data) {
+        long start = Stats.begin();
+        int length = data.remaining();
+        MessageDigest md = start();
+        md.update(data);
+        byte[] result = md.digest();
+        Stats.end(Stats.Op.SHA1, start, length);
+        return result;
+    }
+
+    /** Returns the raw SHA-1 ID of everything remaining in IN, which is read
+     *  through a reused buffer but not closed. */
+    static byte[] digest(InputStream in) throws IOException {
+        long start = Stats.begin();
+        MessageDigest md = start();
+        byte[] buf = STATE.get().scratch;
+        long length = 0;
+        for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+            md.update(buf, 0, n);
+            length += n;
+        }
+        byte[] result = md.digest();
+        Stats.end(Stats.Op.SHA1, start, length);
+        return result;
+    }
+
+    /** Returns the raw SHA-1 ID of the UTF-8 encoding of S. */
+    static byte[] digest(String s) {
+        long start = Stats.begin();
+        MessageDigest md = start();
+        long length = update(md, s);
+        byte[] result = md.digest();
+        Stats.end(Stats.Op.SHA1, start, length);
+        return result;
+    }
+
+    /** Returns the lowercase hexadecimal form of the raw ID. */
+    static String toHex(byte[] id) {
+        char[] result = new char[id.length * 2];
+        for (int i = 0; i < id.length; i++) {
+            result[2 * i] = HEX[(id[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX[id[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Writes the lowercase hexadecimal form of the LENGTH raw bytes of SRC at OFFSET
+     *  to DEST at DESTOFFSET, as ASCII. */
+    static void toHex(byte[] src, int offset, int length, byte[] dest, int destOffset) {
+        for (int i = 0; i < length; i++) {
+            dest[destOffset + 2 * i] = (byte) HEX[(src[offset + i] >> 4) & 0xf];
+            dest[destOffset + 2 * i + 1] = (byte) HEX[src[offset + i] & 0xf];
+        }
+    }
+
+    /** Returns the raw form of the hexadecimal ID HEXID. Throws
+     *  IllegalArgumentException if it is not an even-length hexadecimal numeral. */
+    static byte[] fromHex(String hexId) {
+        if (hexId.length() % 2 != 0) {
+            throw new IllegalArgumentException("odd-length SHA-1 ID");
+        }
+        byte[] result = new byte[hexId.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            int hi = Character.digit(hexId.charAt(2 * i), 16);
+            int lo = Character.digit(hexId.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("improper SHA-1 ID");
+            }
+            result[i] = (byte) ((hi << 4) | lo);
+        }
+        return result;
+    }
+}
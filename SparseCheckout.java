@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The patterns of a sparse checkout, kept one per line in .gitlet/sparse-checkout.
+ * Checkout, reset and merge write only the files they select to the working
+ * directory, and scans of it look only at those; commits still hold every file, and
+ * those outside the selection keep their Blob IDs from each commit to the next.
+ *
+ * Patterns use the .gitletignore syntax, and a path is selected when they would
+ * ignore it, so "*.txt" selects the text files and a later "!notes.txt" leaves one
+ * out. As there, the last pattern matching a path decides. Without the file every
+ * path is selected.
+ */
+class SparseCheckout {
+
+    /** The selection of a repository without a sparse-checkout file. */
+    static final SparseCheckout FULL = new SparseCheckout(Collections.emptyList());
+
+    /** The patterns, in order. */
+    private final List<String> patterns;
+
+    /** The patterns compiled, or null if every path is selected. */
+    private final IgnoreRules rules;
+
+    /** Create a selection of the paths matched by PATTERNS, or of every path if
+     *  there are none. */
+    SparseCheckout(List<String> patterns) {
+        this.patterns = Collections.unmodifiableList(new ArrayList<>(patterns));
+        this.rules = patterns.isEmpty() ? null
+            : new IgnoreRules(String.join("\n", patterns));
+    }
+
+    /** Reads the sparse-checkout file FILE. */
+    static SparseCheckout read(File file) {
+        if (!file.isFile()) {
+            return FULL;
+        }
+        List<String> patterns = new ArrayList<>();
+        for (String line : Utils.readContentsAsString(file).split("\n")) {
+            if (!line.isBlank()) {
+                patterns.add(line);
+            }
+        }
+        return new SparseCheckout(patterns);
+    }
+
+    /** Returns the contents of a sparse-checkout file holding these patterns. */
+    String format() {
+        StringBuilder result = new StringBuilder();
+        for (String p : patterns) {
+            result.append(p).append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Returns whether every path is selected. */
+    boolean isFull() {
+        return rules == null;
+    }
+
+    /** Returns whether the file PATH is checked out. */
+    boolean includes(String path) {
+        return rules == null || rules.isIgnored(path, false);
+    }
+
+    /** Returns the patterns, in order. */
+    List<String> getPatterns() {
+        return patterns;
+    }
+}
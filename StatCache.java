@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The stat cache: the SHA-1 ID of each file Gitlet has hashed, with the size and
+ * modification time the file had when it was read, one per line as
+ * "SIZE MTIME ID NAME". A file whose size and modification time still match needs
+ * no rehashing. Names are relative to the working directory, so staged copies
+ * appear under .gitlet/staging_addition.
+ *
+ * A file modified within a timestamp tick of being read could keep its recorded
+ * modification time, so only files last modified comfortably before they were read
+ * are recorded; the rest are hashed again each time until they settle.
+ */
+class StatCache {
+
+    /** How long before it is read a file must have been last modified to be
+     *  recorded, in milliseconds. Two seconds covers the coarsest file systems. */
+    private static final long SETTLE_MILLIS = 2000;
+
+    /** One recorded file. */
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String id;
+
+        Entry(long size, long lastModified, String id) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.id = id;
+        }
+    }
+
+    /** The recorded files, by name. */
+    private final Map<String, Entry> entries;
+
+    /** Whether anything has been recorded since the cache was read. */
+    private boolean changed;
+
+    private StatCache(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** Reads the stat cache FILE. A missing or malformed file is an empty cache,
+     *  since every entry can be recomputed. */
+    static StatCache read(File file) {
+        Map<String, Entry> entries = new TreeMap<>();
+        if (!file.isFile()) {
+            return new StatCache(entries);
+        }
+        try {
+            for (String line : Utils.readContentsAsString(file).split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int space1 = line.indexOf(' ');
+                int space2 = line.indexOf(' ', space1 + 1);
+                int space3 = space2 + 1 + Utils.UID_LENGTH;
+                if (space1 < 0 || space2 < 0 || space3 >= line.length()
+                        || line.charAt(space3) != ' ') {
+                    return new StatCache(new TreeMap<>());
+                }
+                entries.put(line.substring(space3 + 1),
+                    new Entry(Long.parseLong(line, 0, space1, 10),
+                        Long.parseLong(line, space1 + 1, space2, 10),
+                        line.substring(space2 + 1, space3)));
+            }
+        } catch (NumberFormatException excp) {
+            return new StatCache(new TreeMap<>());
+        }
+        return new StatCache(entries);
+    }
+
+    /** Returns the ID recorded for the file NAME if it was recorded with SIZE and
+     *  LASTMODIFIED, or null. */
+    String get(String name, long size, long lastModified) {
+        Entry e = entries.get(name);
+        if (e == null || e.size != size || e.lastModified != lastModified) {
+            return null;
+        }
+        return e.id;
+    }
+
+    /** Records ID for the file NAME, which had SIZE and LASTMODIFIED when it was read
+     *  at READTIME, in milliseconds since the epoch, unless it was modified too
+     *  shortly before then to be trusted. */
+    void put(String name, long size, long lastModified, long readTime, String id) {
+        if (lastModified > readTime - SETTLE_MILLIS) {
+            return;
+        }
+        Entry old = entries.put(name, new Entry(size, lastModified, id));
+        changed |= old == null || old.size != size || old.lastModified != lastModified
+            || !old.id.equals(id);
+    }
+
+    /** Writes the cache to FILE if anything has been recorded since it was read. */
+    void save(File file) {
+        if (!changed) {
+            return;
+        }
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry v = e.getValue();
+            out.append(v.size).append(' ').append(v.lastModified).append(' ')
+                .append(v.id).append(' ').append(e.getKey()).append('\n');
+        }
+        Utils.writeContentsAtomic(file, false, out.toString());
+        changed = false;
+    }
+}
@@ -0,0 +1,165 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Counts the calls, bytes and time spent in Gitlet's storage and hashing primitives,
+ * so the cost of a command can be split between object I/O, directory listing,
+ * hashing and graph walking without a profiler. Each Stats holds its own counters,
+ * which count the operations of whatever it is recording: a command runs under
+ * record, and operations on that thread, or on threads it starts, are counted
+ * against it. Operations with no Stats recording them are not counted, so
+ * commands run side by side in one process keep separate totals. Each operation
+ * is also emitted as a JDK Flight Recorder event when a recording has
+ * gitlet.Operation enabled.
+ *
+ * Usage: long start = Stats.begin(); ...; Stats.end(Stats.Op.SHA1, start, bytes);
+ */
+class Stats {
+
+    /** The instrumented operations. */
+    enum Op {
+        SHA1("sha1"),
+        SERIALIZE("serialize"),
+        READ_OBJECT("readObject"),
+        WRITE_FILE("writeFile"),
+        LIST_DIR("plainFilenamesIn"),
+        LOAD_COMMIT("loadCommit"),
+        LOAD_BLOB("loadBlob"),
+        LOAD_BRANCH("loadBranch"),
+        SAVE_COMMIT("saveCommit"),
+        SAVE_BLOB("saveBlob"),
+        SAVE_BRANCH("saveBranch");
+
+        /** The name this operation is reported under. */
+        private final String label;
+
+        Op(String label) {
+            this.label = label;
+        }
+    }
+
+    /** The number of calls to each operation, by ordinal. */
+    private final LongAdder[] calls = adders();
+
+    /** The number of bytes each operation handled, by ordinal. */
+    private final LongAdder[] bytes = adders();
+
+    /** The total time taken by each operation, in nanoseconds, by ordinal. */
+    private final LongAdder[] nanos = adders();
+
+    /** The Stats recording the current thread, inherited by the threads it starts,
+     *  or null. */
+    private static final InheritableThreadLocal<Stats> CURRENT =
+        new InheritableThreadLocal<>();
+
+    /** A single instrumented operation, as recorded by Flight Recorder. */
+    @Name("gitlet.Operation")
+    @Label("Gitlet Operation")
+    @Category("Gitlet")
+    @Description("A hashing, serialization, directory or object-store operation")
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Bytes")
+        long bytes;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    /** A whole Gitlet command, as recorded by Flight Recorder. */
+    @Name("gitlet.Command")
+    @Label("Gitlet Command")
+    @Category("Gitlet")
+    static class CommandEvent extends Event {
+        @Label("Command")
+        String command;
+    }
+
+    /** The Flight Recorder type of OperationEvent, checked before creating events. */
+    private static final EventType OPERATION_TYPE = EventType.getEventType(OperationEvent.class);
+
+    /** Returns a start time to pass to end. */
+    static long begin() {
+        return System.nanoTime();
+    }
+
+    /** Records one call to OP, which began at START and handled BYTES bytes, in the
+     *  Stats recording the current thread. */
+    static void end(Op op, long start, long bytes) {
+        long elapsed = System.nanoTime() - start;
+        Stats current = CURRENT.get();
+        if (current != null) {
+            current.calls[op.ordinal()].increment();
+            current.bytes[op.ordinal()].add(bytes);
+            current.nanos[op.ordinal()].add(elapsed);
+        }
+        if (OPERATION_TYPE.isEnabled()) {
+            OperationEvent e = new OperationEvent();
+            e.operation = op.label;
+            e.bytes = bytes;
+            e.elapsed = elapsed;
+            e.commit();
+        }
+    }
+
+    /** Runs BODY, counting the operations it performs in this Stats. */
+    void record(Runnable body) {
+        Stats previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            body.run();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /** Returns ACTION made to count its operations in the Stats recording the
+     *  current thread, whichever thread runs it. The worker threads of parallel
+     *  streams are shared by the whole process and inherit nothing from the
+     *  command that uses them. */
+    static <T> Consumer<T> inCurrent(Consumer<T> action) {
+        Stats current = CURRENT.get();
+        if (current == null) {
+            return action;
+        }
+        return t -> current.record(() -> action.accept(t));
+    }
+
+    /** Prints a table of every operation this Stats has counted to OUT. */
+    void report(PrintStream out) {
+        out.printf(Locale.ROOT, "%-18s %10s %14s %12s%n", "operation", "calls", "bytes", "ms");
+        for (Op op : Op.values()) {
+            int i = op.ordinal();
+            long n = calls[i].sum();
+            if (n == 0) {
+                continue;
+            }
+            out.printf(Locale.ROOT, "%-18s %10d %14d %12.3f%n", op.label, n,
+                    bytes[i].sum(), nanos[i].sum() / 1e6);
+        }
+    }
+
+    /** Returns a zeroed counter for each operation. */
+    private static LongAdder[] adders() {
+        LongAdder[] result = new LongAdder[Op.values().length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new LongAdder();
+        }
+        return result;
+    }
+}
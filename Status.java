@@ -0,0 +1,51 @@
+package gitlet;
+
+import java.util.List;
+
+/**
+ * A snapshot of the branches and staging areas of a Repository, as reported by status.
+ */
+public class Status {
+    /** The name of the current branch. */
+    private final String currentBranch;
+
+    /** The names of all branches, in lexicographic order. */
+    private final List<String> branches;
+
+    /** The names of files staged for addition, in lexicographic order. */
+    private final List<String> staged;
+
+    /** The names of files staged for removal, in lexicographic order. */
+    private final List<String> removed;
+
+    /**
+     * Create a new Status object.
+     * @param currentBranch The name of the current branch
+     * @param branches The names of all branches
+     * @param staged The names of files staged for addition
+     * @param removed The names of files staged for removal
+     */
+    public Status(String currentBranch, List<String> branches, List<String> staged,
+                  List<String> removed) {
+        this.currentBranch = currentBranch;
+        this.branches = branches;
+        this.staged = staged;
+        this.removed = removed;
+    }
+
+    public String getCurrentBranch() {
+        return currentBranch;
+    }
+
+    public List<String> getBranches() {
+        return branches;
+    }
+
+    public List<String> getStaged() {
+        return staged;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+}
@@ -0,0 +1,257 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A stress test of Gitlet's locking: many threads commit, move, create, delete and
+ * pack branches in one repository at once, each through its own Repository, as
+ * separate processes would. Afterwards it checks that no commit or branch update
+ * was lost, that no deleted branch came back, and that fsck finds every object and
+ * reference sound.
+ *
+ * Committers hold the index lock across writing a file, adding and committing it,
+ * so every commit lands on main. Counter threads advance a few branches along a
+ * fixed chain of commits with compareAndSwapBranch, retrying when they lose a race,
+ * so each branch must end as far along the chain as it was advanced. Churn threads
+ * create and delete branches of their own, and one thread packs refs throughout.
+ *
+ * Usage: java gitlet.StressTest [THREADS] [ROUNDS]
+ * where THREADS is the number of threads of each kind (default 4) and ROUNDS the
+ * number of operations each performs (default 50). Exits with status 1 if a check
+ * fails.
+ */
+class StressTest {
+
+    /** The number of branches the counter threads advance. */
+    private static final int COUNTERS = 3;
+
+    /** The repository's working directory. */
+    private final File root;
+
+    /** The number of threads of each kind. */
+    private final int threads;
+
+    /** The number of operations each thread performs. */
+    private final int rounds;
+
+    /** The commits the counter branches advance along, in order. */
+    private final List<Commit> chain = new ArrayList<>();
+
+    /** The index in chain of each of its commits, by SHA-1 ID. */
+    private final Map<String, Integer> chainIndex = new HashMap<>();
+
+    /** The number of times each counter branch was advanced. */
+    private final AtomicIntegerArray advances = new AtomicIntegerArray(COUNTERS);
+
+    /** The number of commits made by committers. */
+    private final AtomicInteger commits = new AtomicInteger();
+
+    /** The problems found, including exceptions thrown by workers. */
+    private final List<String> problems = Collections.synchronizedList(new ArrayList<>());
+
+    private StressTest(File root, int threads, int rounds) {
+        this.root = root;
+        this.threads = threads;
+        this.rounds = rounds;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        File root = Files.createTempDirectory("gitlet-stress").toFile();
+        StressTest t = new StressTest(root, threads, rounds);
+        long start = System.nanoTime();
+        try {
+            t.run();
+        } finally {
+            deleteRecursively(root);
+        }
+        System.out.printf("%d threads x %d rounds in %.2f s: %d commits, %d branch moves.%n",
+            4 * threads + 1, rounds, (System.nanoTime() - start) / 1e9, t.commits.get(),
+            t.totalAdvances());
+        if (!t.problems.isEmpty()) {
+            for (String p : t.problems) {
+                System.out.println(p);
+            }
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+    }
+
+    private void run() throws InterruptedException {
+        Repository setup = new Repository(root, "off");
+        setup.init();
+        Commit tip = setup.getCurrentCommit();
+        chain.add(tip);
+        for (int i = 0; i < 2 * threads * rounds; i++) {
+            tip = writeCommit("chain " + i, tip);
+            chain.add(tip);
+        }
+        for (int i = 0; i < chain.size(); i++) {
+            chainIndex.put(Commit.getSha1(chain.get(i)), i);
+        }
+        for (int i = 0; i < COUNTERS; i++) {
+            setup.branch("counter" + i);
+        }
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int id = i;
+            workers.add(worker("committer" + i, () -> commitLoop(id)));
+            workers.add(worker("counter" + i, () -> counterLoop(id)));
+            workers.add(worker("churn" + i, () -> churnLoop(id)));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        Thread packer = worker("packer", () -> {
+            Repository repo = new Repository(root, "off");
+            while (!done.get()) {
+                repo.packRefs();
+            }
+        });
+        workers.forEach(Thread::start);
+        packer.start();
+        for (Thread w : workers) {
+            w.join();
+        }
+        done.set(true);
+        packer.join();
+        check(new Repository(root, "off"));
+    }
+
+    /** Commits ROUNDS edits of a file of its own to main, as committer ID. */
+    @SuppressWarnings("try")
+    private void commitLoop(int id) {
+        Repository repo = new Repository(root, "off");
+        String name = "file" + id + ".txt";
+        for (int r = 0; r < rounds; r++) {
+            try (RepoLock l = repo.lockIndex()) {
+                Utils.writeContents(new File(root, name), "committer " + id + " round " + r);
+                repo.add(name);
+                repo.commit(name + " round " + r);
+                commits.incrementAndGet();
+            }
+        }
+    }
+
+    /** Advances randomly chosen counter branches ROUNDS times, retrying each move
+     *  until it wins against the other counter threads. */
+    private void counterLoop(int id) {
+        Repository repo = new Repository(root, "off");
+        Random random = new Random(id);
+        for (int r = 0; r < rounds; r++) {
+            int counter = random.nextInt(COUNTERS);
+            String name = "counter" + counter;
+            while (true) {
+                String current = Commit.getSha1(repo.loadBranch(name).getCommit());
+                Commit next = chain.get(chainIndex.get(current) + 1);
+                try {
+                    repo.compareAndSwapBranch(new Branch(next, name, false), current);
+                    advances.incrementAndGet(counter);
+                    break;
+                } catch (GitletException excp) {
+                    continue;
+                }
+            }
+        }
+    }
+
+    /** Creates and deletes ROUNDS branches of its own, checking each exists only
+     *  in between. */
+    private void churnLoop(int id) {
+        Repository repo = new Repository(root, "off");
+        for (int r = 0; r < rounds; r++) {
+            String name = "churn" + id + "-" + r;
+            repo.branch(name);
+            if (!repo.branchExists(name)) {
+                problems.add("branch " + name + " missing after it was created");
+            }
+            if (!repo.deleteBranch(name)) {
+                problems.add("branch " + name + " missing when it was deleted");
+            }
+        }
+    }
+
+    /** Checks the state REPO was left in. */
+    private void check(Repository repo) {
+        int length = (int) repo.log().count();
+        if (length != commits.get() + 1) {
+            problems.add(String.format("main has %d commits; expected %d", length,
+                commits.get() + 1));
+        }
+        for (int i = 0; i < threads; i++) {
+            String name = "file" + i + ".txt";
+            String expected = "committer " + i + " round " + (rounds - 1);
+            String blobId = repo.getCurrentCommit().getBlobId(name);
+            Blob b = blobId == null ? null : repo.loadBlob(blobId);
+            if (b == null || !new String(b.getContents()).equals(expected)) {
+                problems.add("main does not hold the last version of " + name);
+            }
+        }
+        for (int i = 0; i < COUNTERS; i++) {
+            String at = Commit.getSha1(repo.loadBranch("counter" + i).getCommit());
+            if (chainIndex.get(at) != advances.get(i)) {
+                problems.add(String.format("counter%d advanced %d times but is at %d", i,
+                    advances.get(i), chainIndex.get(at)));
+            }
+        }
+        for (String name : repo.branchNames()) {
+            if (name.startsWith("churn")) {
+                problems.add("deleted branch " + name + " came back");
+            }
+        }
+        problems.addAll(repo.fsck().getProblems());
+    }
+
+    private int totalAdvances() {
+        int result = 0;
+        for (int i = 0; i < COUNTERS; i++) {
+            result += advances.get(i);
+        }
+        return result;
+    }
+
+    /** Returns a thread named NAME running BODY, which records anything it throws
+     *  as a problem. */
+    private Thread worker(String name, Runnable body) {
+        return new Thread(() -> {
+            try {
+                body.run();
+            } catch (RuntimeException excp) {
+                problems.add(name + " failed: " + excp);
+            }
+        }, name);
+    }
+
+    /** Writes a Commit with parent PARENT straight into the commits directory,
+     *  leaving the branches alone, and returns it. */
+    private Commit writeCommit(String message, Commit parent) {
+        Commit c = new Commit(message, new Date(0), parent, new HashMap<String, String>(),
+                null);
+        File commitsDir = Utils.join(root, ".gitlet", "commits");
+        Utils.writeObject(Utils.join(commitsDir, Commit.getSha1(c)), c);
+        return c;
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteRecursively(c);
+            }
+        }
+        f.delete();
+    }
+}
@@ -1,21 +1,29 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -31,25 +39,28 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        if (vals.length == 1 && vals[0] instanceof byte[]) {
+            return Sha1.toHex(Sha1.digest((byte[]) vals[0]));
+        }
+        if (vals.length == 1 && vals[0] instanceof String) {
+            return Sha1.toHex(Sha1.digest((String) vals[0]));
+        }
+        long start = Stats.begin();
+        long length = 0;
+        MessageDigest md = Sha1.start();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+                length += ((byte[]) val).length;
+            } else if (val instanceof String) {
+                length += Sha1.update(md, (String) val);
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
         }
+        String result = Sha1.toHex(md.digest());
+        Stats.end(Stats.Op.SHA1, start, length);
+        return result;
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -111,6 +122,8 @@ class Utils {
      *  either a String or a byte array.  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
+        long start = Stats.begin();
+        long length = 0;
         try {
             if (file.isDirectory()) {
                 throw
@@ -119,27 +132,120 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[]
+                    ? (byte[]) obj : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                length += bytes.length;
             }
             str.close();
+            Stats.end(Stats.Op.WRITE_FILE, start, length);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp);
         }
     }
 
+    /* ATOMIC WRITES */
+
+    /** Write the result of concatenating the bytes in CONTENTS to FILE as
+     *  writeContents does, but through a temporary file in the same directory
+     *  that is renamed over FILE, so that readers see either the old or the
+     *  new contents and never a partial write.  Besides Strings and byte
+     *  arrays, CONTENTS may hold ByteBuffers, which contribute their remaining
+     *  bytes, and Paths, which contribute the contents of those files.  A
+     *  file is copied without being loaded whole.  If FORCE, FILE and its
+     *  directory are on disk before this returns.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeContentsAtomic(File file, boolean force, Object... contents) {
+        long start = Stats.begin();
+        long length = 0;
+        Path target = file.toPath();
+        Path tmp = null;
+        try {
+            if (file.isDirectory()) {
+                throw
+                    new IllegalArgumentException("cannot overwrite directory");
+            }
+            tmp = Files.createTempFile(target.getParent(),
+                                       "." + file.getName(), ".tmp");
+            try (FileOutputStream str = new FileOutputStream(tmp.toFile())) {
+                for (Object obj : contents) {
+                    if (obj instanceof Path) {
+                        length += Files.copy((Path) obj, str);
+                    } else if (obj instanceof ByteBuffer) {
+                        ByteBuffer buf = ((ByteBuffer) obj).duplicate();
+                        length += buf.remaining();
+                        while (buf.hasRemaining()) {
+                            str.getChannel().write(buf);
+                        }
+                    } else {
+                        byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                            : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                        str.write(bytes);
+                        length += bytes.length;
+                    }
+                }
+                if (force) {
+                    str.getFD().sync();
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            if (force) {
+                force(target.getParent());
+            }
+            Stats.end(Stats.Op.WRITE_FILE, start, length);
+        } catch (IOException | ClassCastException excp) {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
+    /** Copy COUNT bytes from SRC, starting at POSITION, to the end of DEST,
+     *  letting the kernel move them directly where it can.  Throws
+     *  IOException if SRC ends early. */
+    static void transfer(FileChannel src, long position, long count,
+                         WritableByteChannel dest)
+        throws IOException {
+        while (count > 0) {
+            long n = src.transferTo(position, count, dest);
+            if (n <= 0) {
+                throw new IOException("unexpected end of file");
+            }
+            position += n;
+            count -= n;
+        }
+    }
+
+    /** Force the file or directory P to disk.  Files that have since been
+     *  deleted are skipped, and directories cannot be opened for syncing on
+     *  every platform, so failures there are ignored. */
+    static void force(Path p) {
+        boolean isDir = Files.isDirectory(p);
+        try (FileChannel ch = FileChannel.open(p, isDir
+                 ? StandardOpenOption.READ : StandardOpenOption.WRITE)) {
+            ch.force(true);
+        } catch (NoSuchFileException excp) {
+            return;
+        } catch (IOException excp) {
+            if (!isDir) {
+                throw new IllegalArgumentException(excp);
+            }
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        long start = Stats.begin();
         try {
             ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
+                new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Stats.end(Stats.Op.READ_OBJECT, start, file.length());
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -167,11 +273,13 @@ class Utils {
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
     static List<String> plainFilenamesIn(File dir) {
+        long start = Stats.begin();
         String[] files = dir.list(PLAIN_FILES);
         if (files == null) {
             return null;
         } else {
             Arrays.sort(files);
+            Stats.end(Stats.Op.LIST_DIR, start, 0);
             return Arrays.asList(files);
         }
     }
@@ -204,17 +312,32 @@ class Utils {
 
     /** Returns a byte array containing the serialized contents of OBJ. */
     static byte[] serialize(Serializable obj) {
+        long start = Stats.begin();
         try {
             ByteArrayOutputStream stream = new ByteArrayOutputStream();
             ObjectOutputStream objectStream = new ObjectOutputStream(stream);
             objectStream.writeObject(obj);
             objectStream.close();
+            Stats.end(Stats.Op.SERIALIZE, start, stream.size());
             return stream.toByteArray();
         } catch (IOException excp) {
             throw error("Internal error serializing commit.");
         }
     }
 
+    /** Return an object of type T deserialized from DATA, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] data,
+                                                  Class<T> expectedClass) {
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -0,0 +1,266 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * A file-system watcher for a working directory, run by a long-lived "watch" process,
+ * so that other commands can look at only the files changed since they last scanned.
+ *
+ * The watcher appends the name of every file created, changed or deleted to a journal
+ * in its directory, one per line, and writes a line "*" when the operating system
+ * drops events. Each session of the watcher, begun when it starts and whenever the
+ * journal grows too long, has a journal of its own. A position in the journal is
+ * named by a token, the session ID and an offset, so tokens of older sessions are
+ * simply no longer found.
+ *
+ * Events arrive asynchronously, so a reader first creates a cookie file in the
+ * watcher's directory and waits for the watcher to journal it: everything that
+ * happened before the cookie was created is then in the journal before it.
+ * The watcher holds a lock on a file for as long as it runs, so a reader can tell
+ * when no watcher is running and the journal means nothing.
+ */
+class Watcher {
+
+    /** The journal is restarted once it grows past this length. */
+    private static final long MAX_JOURNAL = 16 << 20;
+
+    /** How long a reader waits for its cookie before scanning in full instead. */
+    private static final long COOKIE_TIMEOUT_MS = 1000;
+
+    /** The journal line recording that events were lost. */
+    private static final String OVERFLOWED = "*";
+
+    /** Journal lines starting with this record a cookie. */
+    private static final String COOKIE = ">";
+
+    /** The directory holding the journal, session, lock and cookies. */
+    private final File dir;
+
+    /** The file held locked while the watcher runs. */
+    private final File lock;
+
+    /** The file holding the current session ID. */
+    private final File session;
+
+    /** Create a Watcher keeping its state in DIR. */
+    Watcher(File dir) {
+        this.dir = dir;
+        this.lock = Utils.join(dir, "lock");
+        this.session = Utils.join(dir, "session");
+    }
+
+    /** Returns the journal of the session ID. */
+    private File journal(String id) {
+        return Utils.join(dir, "journal-" + id);
+    }
+
+    /* WATCHING */
+
+    /** Journals the changes to the files of CWD until the process is killed. Throws a
+     *  GitletException if another watcher is already running. */
+    void run(File cwd) {
+        dir.mkdirs();
+        try (FileChannel lockChannel = FileChannel.open(lock.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             WatchService service = FileSystems.getDefault().newWatchService()) {
+            FileLock held = lockChannel.tryLock();
+            if (held == null) {
+                throw Utils.error("A watcher is already running.");
+            }
+            WatchKey cwdKey = cwd.toPath().register(service,
+                ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            dir.toPath().register(service, ENTRY_CREATE);
+            FileChannel out = restart(null);
+            while (true) {
+                WatchKey key = service.take();
+                StringBuilder lines = new StringBuilder();
+                for (WatchEvent<?> e : key.pollEvents()) {
+                    if (e.kind() == OVERFLOW) {
+                        lines.append(OVERFLOWED).append('\n');
+                        continue;
+                    }
+                    String name = ((Path) e.context()).toString();
+                    if (name.indexOf('\n') >= 0) {
+                        lines.append(OVERFLOWED).append('\n');
+                    } else if (key == cwdKey && !name.equals(".gitlet")) {
+                        lines.append(name).append('\n');
+                    } else if (key != cwdKey && name.startsWith("cookie-")) {
+                        lines.append(COOKIE).append(name).append('\n');
+                    }
+                }
+                if (!key.reset() && key == cwdKey) {
+                    return;
+                }
+                out.write(ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8)));
+                if (out.size() > MAX_JOURNAL) {
+                    out = restart(out);
+                }
+            }
+        } catch (IOException | ClosedWatchServiceException excp) {
+            throw Utils.error("The watcher stopped: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Closes the journal OUT, if not null, and starts a new session with an empty
+     *  journal, which it returns open for appending. */
+    private FileChannel restart(FileChannel out) throws IOException {
+        String old = readSession();
+        if (out != null) {
+            out.close();
+        }
+        String id = Long.toHexString(System.nanoTime())
+            + Long.toHexString(Double.doubleToLongBits(Math.random()));
+        FileChannel result = FileChannel.open(journal(id).toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        Utils.writeContentsAtomic(session, false, id);
+        if (!old.isEmpty()) {
+            journal(old).delete();
+        }
+        return result;
+    }
+
+    /* QUERIES */
+
+    /** Returns a token for the present state of the working directory, once every
+     *  earlier change is in the journal, or null if no watcher is running or it is
+     *  not keeping up. */
+    String sync() {
+        if (!isRunning()) {
+            return null;
+        }
+        String id = readSession();
+        File journal = journal(id);
+        File cookie = Utils.join(dir, "cookie-" + ProcessHandle.current().pid() + "-"
+            + Long.toHexString(System.nanoTime()));
+        byte[] line = (COOKIE + cookie.getName() + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel in = FileChannel.open(journal.toPath(), StandardOpenOption.READ)) {
+            long searched = in.size();
+            if (!cookie.createNewFile()) {
+                return null;
+            }
+            long deadline = System.currentTimeMillis() + COOKIE_TIMEOUT_MS;
+            while (System.currentTimeMillis() < deadline) {
+                byte[] data = read(in, searched, in.size());
+                int at = indexOf(data, line);
+                if (at >= 0) {
+                    return id + ":" + (searched + at + line.length);
+                }
+                searched += Math.max(0, data.length - line.length + 1);
+                Thread.sleep(1);
+            }
+            return null;
+        } catch (IOException excp) {
+            return null;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            cookie.delete();
+        }
+    }
+
+    /** Returns the names of the files changed between the tokens SINCE and UNTIL, or
+     *  null if they are from different sessions or events were lost in between. */
+    Set<String> changes(String since, String until) {
+        String[] from = since.split(":");
+        String[] to = until.split(":");
+        if (from.length != 2 || !from[0].equals(to[0])) {
+            return null;
+        }
+        long start = Long.parseLong(from[1]);
+        long end = Long.parseLong(to[1]);
+        if (start > end) {
+            return null;
+        }
+        byte[] data;
+        try (FileChannel in = FileChannel.open(journal(to[0]).toPath(),
+                 StandardOpenOption.READ)) {
+            data = read(in, start, end);
+        } catch (IOException excp) {
+            return null;
+        }
+        if (data.length != end - start) {
+            return null;
+        }
+        Set<String> result = new HashSet<>();
+        for (String name : new String(data, StandardCharsets.UTF_8).split("\n")) {
+            if (name.equals(OVERFLOWED)) {
+                return null;
+            }
+            if (!name.isEmpty() && !name.startsWith(COOKIE)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /** Returns whether a watcher holds the lock. */
+    private boolean isRunning() {
+        if (!lock.isFile()) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(lock.toPath(), StandardOpenOption.WRITE)) {
+            FileLock l = ch.tryLock();
+            if (l == null) {
+                return true;
+            }
+            l.release();
+            return false;
+        } catch (OverlappingFileLockException excp) {
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the current session ID, or "" if there is none. */
+    private String readSession() {
+        return session.isFile() ? Utils.readContentsAsString(session) : "";
+    }
+
+    /** Returns the bytes of IN from START up to END, or fewer if it ends first. */
+    private static byte[] read(FileChannel in, long start, long end) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.max(0, end - start));
+        while (buf.hasRemaining() && in.read(buf, start + buf.position()) > 0) {
+            continue;
+        }
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    /** Returns the index of the first occurrence of PATTERN in DATA, or -1. */
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,266 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static gitlet.Utils.error;
+
+/**
+ * A snapshot of the plain files of a working directory, taken once per command, with
+ * each file's size and modification time and its relation to the current commit and
+ * the staging area. Commands make all their safety checks against one snapshot
+ * rather than listing the directory for each. Files are examined in parallel, one
+ * stat call apiece.
+ *
+ * When a Watcher is running, a snapshot is saved with its token, and the next one is
+ * made from it by examining only the files the watcher saw change since.
+ */
+class WorkingTree {
+
+    /** How a file relates to the repository. */
+    enum State {
+        /** In the current commit. */
+        TRACKED,
+        /** Staged for addition, and not in the current commit. */
+        STAGED,
+        /** Neither, but matched by .gitletignore. */
+        IGNORED,
+        /** Neither, and not ignored. */
+        UNTRACKED
+    }
+
+    /** One file of the snapshot. */
+    static class Entry {
+        private final String name;
+        private final long size;
+        private final long lastModified;
+        private final State state;
+
+        Entry(String name, long size, long lastModified, State state) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.state = state;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        /** Returns the modification time in milliseconds since the epoch. */
+        long getLastModified() {
+            return lastModified;
+        }
+
+        State getState() {
+            return state;
+        }
+    }
+
+    /** The files, by name, in name order. */
+    private final Map<String, Entry> files;
+
+    /** The names of the files staged for addition when the snapshot was taken. */
+    private final List<String> staged;
+
+    /** The names of the files staged for removal when the snapshot was taken. */
+    private final List<String> removed;
+
+    private WorkingTree(Map<String, Entry> files, List<String> staged, List<String> removed) {
+        this.files = files;
+        this.staged = staged;
+        this.removed = removed;
+    }
+
+    /** Scans the files of the working directory CWD selected by SPARSE against the
+     *  commit HEAD, the names STAGED and REMOVED in the staging areas, and the ignore
+     *  rules RULES. Files outside a sparse checkout are not examined at all. */
+    static WorkingTree scan(File cwd, Commit head, List<String> staged, List<String> removed,
+                            IgnoreRules rules, SparseCheckout sparse) {
+        String[] names = cwd.list();
+        if (names == null) {
+            names = new String[0];
+        }
+        List<Entry> files = Arrays.stream(names).parallel()
+            .filter(sparse::includes)
+            .map(name -> stat(cwd, name))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+        return classify(files, head, staged, removed, rules);
+    }
+
+    /** Returns a scan as for scan, made if WATCHER is running from the snapshot saved
+     *  in the file SAVED by examining only the files it saw change since then. A new
+     *  snapshot is saved whenever anything has changed. */
+    static WorkingTree scan(File cwd, Commit head, List<String> staged, List<String> removed,
+                            IgnoreRules rules, SparseCheckout sparse, Watcher watcher,
+                            File saved) {
+        String token = watcher.sync();
+        if (token == null) {
+            return scan(cwd, head, staged, removed, rules, sparse);
+        }
+        String[] lines = saved.isFile()
+            ? Utils.readContentsAsString(saved).split("\n") : new String[0];
+        Set<String> changed = lines.length >= 2 && lines[1].equals(sparseKey(sparse))
+            ? watcher.changes(lines[0], token) : null;
+        if (changed == null) {
+            WorkingTree result = scan(cwd, head, staged, removed, rules, sparse);
+            result.save(saved, token, sparse);
+            return result;
+        }
+
+        List<Entry> files = new ArrayList<>(lines.length);
+        for (int i = 2; i < lines.length; i++) {
+            String line = lines[i];
+            int space1 = line.indexOf(' ');
+            int space2 = line.indexOf(' ', space1 + 1);
+            String name = line.substring(space2 + 1);
+            if (!changed.contains(name)) {
+                files.add(new Entry(name, Long.parseLong(line, 0, space1, 10),
+                    Long.parseLong(line, space1 + 1, space2, 10), State.UNTRACKED));
+            }
+        }
+        for (String name : changed) {
+            Entry e = sparse.includes(name) ? stat(cwd, name) : null;
+            if (e != null) {
+                files.add(e);
+            }
+        }
+        WorkingTree result = classify(files, head, staged, removed, rules);
+        if (!changed.isEmpty()) {
+            result.save(saved, token, sparse);
+        }
+        return result;
+    }
+
+    /** Saves this snapshot to the file SAVED, with the watcher's TOKEN and the
+     *  sparse checkout SPARSE it was made with. */
+    private void save(File saved, String token, SparseCheckout sparse) {
+        StringBuilder out = new StringBuilder();
+        out.append(token).append('\n').append(sparseKey(sparse)).append('\n');
+        for (Entry e : files.values()) {
+            out.append(e.getSize()).append(' ').append(e.getLastModified()).append(' ')
+                .append(e.getName()).append('\n');
+        }
+        Utils.writeContentsAtomic(saved, false, out.toString());
+    }
+
+    /** Returns the line identifying the sparse checkout SPARSE in a saved snapshot,
+     *  which is good only for the same selection. */
+    private static String sparseKey(SparseCheckout sparse) {
+        return "sparse " + Utils.sha1(sparse.format());
+    }
+
+    /** Returns the file NAME of CWD, with its state yet to be set, or null if it is not
+     *  a plain file. */
+    private static Entry stat(File cwd, String name) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(new File(cwd, name).toPath(),
+                BasicFileAttributes.class);
+        } catch (IOException excp) {
+            return null;
+        }
+        if (!attrs.isRegularFile()) {
+            return null;
+        }
+        return new Entry(name, attrs.size(), attrs.lastModifiedTime().toMillis(),
+            State.UNTRACKED);
+    }
+
+    /** Returns the snapshot of FILES, with the state of each set from the commit HEAD,
+     *  the staging areas STAGED and REMOVED, and the ignore rules RULES. FILES is
+     *  sorted here; it is usually close to sorted already. */
+    private static WorkingTree classify(List<Entry> files, Commit head,
+                                        List<String> staged, List<String> removed,
+                                        IgnoreRules rules) {
+        files.sort(Comparator.comparing(Entry::getName));
+        Set<String> stagedSet = Set.copyOf(staged);
+        Entry[] classified = files.parallelStream()
+            .map(e -> {
+                String name = e.getName();
+                State state = head.contains(name) ? State.TRACKED
+                    : stagedSet.contains(name) ? State.STAGED
+                    : rules.isIgnored(name, false) ? State.IGNORED : State.UNTRACKED;
+                return new Entry(name, e.getSize(), e.getLastModified(), state);
+            })
+            .toArray(Entry[]::new);
+        Map<String, Entry> result = new LinkedHashMap<>(classified.length * 2);
+        for (Entry e : classified) {
+            result.put(e.getName(), e);
+        }
+        return new WorkingTree(Collections.unmodifiableMap(result), staged, removed);
+    }
+
+    /** Returns the file NAME, or null if it is not a plain file here. */
+    Entry get(String name) {
+        return files.get(name);
+    }
+
+    /** Returns the names of the files in STATE, in lexicographic order. */
+    List<String> filesIn(State state) {
+        List<String> result = new ArrayList<>();
+        for (Entry e : files.values()) {
+            if (e.getState() == state) {
+                result.add(e.getName());
+            }
+        }
+        return result;
+    }
+
+    /** Returns the names of the files not ignored, in lexicographic order. */
+    List<String> unignoredFiles() {
+        List<String> result = new ArrayList<>();
+        for (Entry e : files.values()) {
+            if (e.getState() != State.IGNORED) {
+                result.add(e.getName());
+            }
+        }
+        return result;
+    }
+
+    /** Returns the names of the files tracked or staged, in lexicographic order. */
+    List<String> trackedFiles() {
+        List<String> result = filesIn(State.TRACKED);
+        result.addAll(filesIn(State.STAGED));
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns the names of the files staged for addition. */
+    List<String> getStaged() {
+        return staged;
+    }
+
+    /** Returns the names of the files staged for removal. */
+    List<String> getRemoved() {
+        return removed;
+    }
+
+    /** Throws a GitletException if any file is untracked and not ignored, since a
+     *  command replacing the working directory could overwrite it. */
+    void checkNoUntracked() {
+        for (Entry e : files.values()) {
+            if (e.getState() == State.UNTRACKED) {
+                throw error("There is an untracked file in the way; delete it, "
+                        + "or add and commit it first.");
+            }
+        }
+    }
+}